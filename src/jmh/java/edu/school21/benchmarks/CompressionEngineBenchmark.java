@@ -0,0 +1,112 @@
+package edu.school21.benchmarks;
+
+import edu.school21.utils.CompressionEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Сравнение прежней реализации (новые Deflater/Inflater на каждый вызов) с пулом CompressionEngine
+ * на записи (compress) и на чтении изображения потоком (inflate).
+ * Скорость аллокаций выводит профилировщик gc (gc.alloc.rate.norm).
+ * Запуск: mvn -Pbenchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionEngineBenchmark {
+    @Param({"65536", "1048576"})
+    public int size;
+
+    private CompressionEngine compressionEngine;
+    private byte[] data;
+    private byte[] compressed;
+    private byte[] sink = new byte[8 * 1024];
+
+    @Setup
+    public void setUp() {
+        compressionEngine = new CompressionEngine(4, 4 * 1024 * 1024);
+        data = new byte[size];
+        Random random = new Random(42);
+        // половина данных случайная, половина повторяется, как заголовки и однотонные области изображений
+        random.nextBytes(data);
+        for (int i = size / 2; i < size; i++) {
+            data[i] = (byte) (i % 64);
+        }
+        compressed = compressionEngine.compress(data, Deflater.BEST_COMPRESSION);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressionEngine.close();
+    }
+
+    @Benchmark
+    public byte[] legacyCompress() {
+        Deflater deflater = new Deflater();
+        deflater.setLevel(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
+        byte[] tmp = new byte[4 * 1024];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(tmp);
+            outputStream.write(tmp, 0, count);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] engineCompress() {
+        return compressionEngine.compress(data, Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Прежнее чтение изображения: новый InflaterInputStream со своим Inflater на каждый запрос
+     */
+    @Benchmark
+    public long legacyInflate() throws IOException {
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return drain(in);
+        }
+    }
+
+    @Benchmark
+    public long engineInflate() throws IOException {
+        try (InputStream in = compressionEngine.inflate(new ByteArrayInputStream(compressed))) {
+            return drain(in);
+        }
+    }
+
+    /**
+     * Чтение потока блоками, как при копировании в ответ
+     */
+    private long drain(InputStream in) throws IOException {
+        long total = 0;
+        for (int count = in.read(sink); count != -1; count = in.read(sink)) {
+            total += count;
+        }
+        return total;
+    }
+}
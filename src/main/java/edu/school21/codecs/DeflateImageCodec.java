@@ -0,0 +1,50 @@
+package edu.school21.codecs;
+
+import edu.school21.utils.CompressionEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Сжатие zlib (HTTP Content-Encoding: deflate). Уровень сжатия влияет только на запись,
+ * поэтому записи, сжатые с разными уровнями, читаются одним кодеком
+ */
+@Component
+public class DeflateImageCodec implements ImageCodec {
+    public static final String ID = "deflate";
+    private CompressionEngine compressionEngine;
+    private int level;
+
+    public DeflateImageCodec(CompressionEngine compressionEngine,
+                             @Value("${images.codec.deflate.level}") int level) {
+        this.compressionEngine = compressionEngine;
+        this.level = level;
+    }
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        return compressionEngine.compress(data, level);
+    }
+
+    @Override
+    public OutputStream encode(OutputStream stored) {
+        return compressionEngine.deflate(stored, level);
+    }
+
+    @Override
+    public InputStream decode(InputStream stored) {
+        return compressionEngine.inflate(stored);
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return ID;
+    }
+}
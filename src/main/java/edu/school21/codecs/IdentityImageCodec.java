@@ -0,0 +1,41 @@
+package edu.school21.codecs;
+
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Хранение без сжатия. Им сохраняются уже сжатые форматы (см. ImageUtils.isCompressedFormat) и данные, которые
+ * сжимаются хуже images.compression.max-ratio. Идентификатор "stored" записывался для таких данных и до появления
+ * подключаемых кодеков, поэтому эти записи читаются без миграции
+ */
+@Component
+public class IdentityImageCodec implements ImageCodec {
+    public static final String ID = "stored";
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public OutputStream encode(OutputStream stored) {
+        return stored;
+    }
+
+    @Override
+    public InputStream decode(InputStream stored) {
+        return stored;
+    }
+
+    @Override
+    public boolean isIdentity() {
+        return true;
+    }
+}
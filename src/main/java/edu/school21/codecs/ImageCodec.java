@@ -0,0 +1,49 @@
+package edu.school21.codecs;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Способ хранения данных изображения. Идентификатор кодека сохраняется в image_blobs.codec рядом с данными,
+ * поэтому записи, сохраненные разными кодеками, читаются одновременно
+ */
+public interface ImageCodec {
+    /**
+     * @return идентификатор кодека, который хранится в базе
+     */
+    String getId();
+
+    /**
+     * @param data - исходные данные изображения
+     * @return данные для хранения
+     */
+    byte[] encode(byte[] data);
+
+    /**
+     * @param stored - поток для данных хранения
+     * @return поток для исходных данных, которые кодируются по мере записи. Закрытие потока завершает
+     * кодирование и закрывает stored
+     */
+    OutputStream encode(OutputStream stored);
+
+    /**
+     * @param stored - поток сохраненных данных
+     * @return поток исходных данных, декодируемых по мере чтения
+     */
+    InputStream decode(InputStream stored);
+
+    /**
+     * @return значение Content-Encoding, с которым сохраненные данные можно отдать клиенту без декодирования,
+     * или null, если такого кодирования в HTTP нет
+     */
+    default String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * @return true, если данные хранятся без преобразования и из них можно читать произвольный диапазон
+     */
+    default boolean isIdentity() {
+        return false;
+    }
+}
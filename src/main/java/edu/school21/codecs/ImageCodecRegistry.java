@@ -0,0 +1,50 @@
+package edu.school21.codecs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Реестр кодеков изображений: все бины ImageCodec доступны по идентификатору, который хранится в image_blobs.codec.
+ * При загрузке данные сжимаются быстрым кодеком images.codec.upload, а затем фоновое пересжатие
+ * переводит их на кодек images.codec.default
+ */
+@Component
+public class ImageCodecRegistry {
+    private Map<String, ImageCodec> codecs;
+    private ImageCodec defaultCodec;
+    private ImageCodec uploadCodec;
+
+    public ImageCodecRegistry(List<ImageCodec> codecs,
+                              @Value("${images.codec.default}") String defaultCodecId,
+                              @Value("${images.codec.upload}") String uploadCodecId) {
+        this.codecs = codecs.stream()
+                .collect(Collectors.toUnmodifiableMap(ImageCodec::getId, Function.identity()));
+        this.defaultCodec = get(defaultCodecId);
+        this.uploadCodec = get(uploadCodecId);
+    }
+
+    public ImageCodec get(String id) {
+        ImageCodec codec = codecs.get(id);
+        if (codec == null) {
+            throw new IllegalStateException("Unknown image codec: %s".formatted(id));
+        }
+        return codec;
+    }
+
+    public ImageCodec getDefault() {
+        return defaultCodec;
+    }
+
+    public ImageCodec getUpload() {
+        return uploadCodec;
+    }
+
+    public ImageCodec getIdentity() {
+        return get(IdentityImageCodec.ID);
+    }
+}
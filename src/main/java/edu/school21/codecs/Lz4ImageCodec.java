@@ -0,0 +1,53 @@
+package edu.school21.codecs;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Быстрое сжатие LZ4 (формат LZ4 Frame): сжимает хуже deflate, но в разы быстрее и почти не нагружает CPU при чтении
+ */
+@Component
+public class Lz4ImageCodec implements ImageCodec {
+    public static final String ID = "lz4";
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(byte[] data) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
+        try (LZ4FrameOutputStream lz4 = new LZ4FrameOutputStream(outputStream)) {
+            lz4.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public OutputStream encode(OutputStream stored) {
+        try {
+            return new LZ4FrameOutputStream(stored);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream decode(InputStream stored) {
+        try {
+            return new LZ4FrameInputStream(stored);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package edu.school21.constants;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+public enum UploadJobStatus {
+    PENDING("pending"),
+    PROCESSING("processing"),
+    COMPLETED("completed"),
+    FAILED("failed");
+
+    private final String value;
+
+    UploadJobStatus(String value) {
+        this.value = value;
+    }
+
+    @JsonValue
+    public String getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,29 @@
+package edu.school21.constants.converters;
+
+import edu.school21.constants.UploadJobStatus;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.util.stream.Stream;
+
+@Converter(autoApply = true)
+public class UploadJobStatusConverter implements AttributeConverter<UploadJobStatus, String> {
+    @Override
+    public String convertToDatabaseColumn(UploadJobStatus status) {
+        if (status == null) {
+            return null;
+        }
+        return status.getValue();
+    }
+
+    @Override
+    public UploadJobStatus convertToEntityAttribute(String value) {
+        if (value == null) {
+            return null;
+        }
+        return Stream.of(UploadJobStatus.values())
+                .filter(c -> c.getValue().equals(value))
+                .findFirst()
+                .orElseThrow(IllegalArgumentException::new);
+    }
+}
@@ -3,6 +3,7 @@ package edu.school21.controllers;
 import edu.school21.dto.ClientDto;
 import edu.school21.dto.ErrorInfoDto;
 import edu.school21.models.Client;
+import edu.school21.models.PageCursor;
 import edu.school21.services.ClientService;
 import edu.school21.utils.MappingUtils;
 import io.swagger.v3.oas.annotations.Operation;
@@ -16,7 +17,9 @@ import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -38,6 +41,7 @@ import java.util.UUID;
 @RestController
 @RequestMapping("/api/v1/clients")
 public class ClientController {
+    private static final int MAX_LIMIT = 25;
     private MappingUtils mappingUtils;
     private ClientService clientService;
 
@@ -49,7 +53,9 @@ public class ClientController {
 
     @Operation(summary = "Get all clients with pagination")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Success",
+            @ApiResponse(responseCode = "200", description = "Success. With limit or cursor and without offset " +
+                    "the page starts after the cursor and the next page cursor is returned in the " +
+                    PageCursor.NEXT_CURSOR_HEADER + " header",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(type = "array", implementation = ClientDto.class))
                     }),
@@ -59,22 +65,37 @@ public class ClientController {
                     })
     })
     @GetMapping
-    public List<ClientDto> getClients(
+    public ResponseEntity<List<ClientDto>> getClients(
             @RequestParam(required = false)
             @Min(value = 1, message = "must be greater than 0")
             @Max(value = 25, message = "must be less than 26")
             Integer limit,
             @RequestParam(required = false)
             @Min(value = 0, message = "must be positive")
-            Integer offset) {
-        if (limit == null || offset == null) {
-            return clientService.findAll().stream()
+            Integer offset,
+            @RequestParam(required = false)
+            String cursor) {
+        if (cursor != null || limit != null && offset == null) {
+            Slice<Client> clients = clientService.findAll(cursor == null ? null : PageCursor.decode(cursor),
+                    limit == null ? MAX_LIMIT : limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (clients.hasNext()) {
+                Client last = clients.getContent().get(clients.getNumberOfElements() - 1);
+                response.header(PageCursor.NEXT_CURSOR_HEADER,
+                        new PageCursor(last.getSurname(), last.getId()).encode());
+            }
+            return response.body(clients.stream()
+                    .map(mappingUtils::convertToDto)
+                    .toList());
+        }
+        if (limit == null) {
+            return ResponseEntity.ok(clientService.findAll().stream()
                     .map(mappingUtils::convertToDto)
-                    .toList();
+                    .toList());
         }
-        return clientService.findAll(PageRequest.of(offset, limit)).stream()
+        return ResponseEntity.ok(clientService.findAll(PageRequest.of(offset, limit)).stream()
                 .map(mappingUtils::convertToDto)
-                .toList();
+                .toList());
     }
 
     @Operation(summary = "Get all clients by name and surname")
@@ -1,19 +1,31 @@
 package edu.school21.controllers;
 
 import edu.school21.dto.ErrorInfoDto;
+import edu.school21.dto.ImageCacheStatsDto;
+import edu.school21.dto.ImageUploadJobDto;
 import edu.school21.dto.MessageDto;
 import edu.school21.exceptions.EmptyFileException;
 import edu.school21.models.Image;
+import edu.school21.services.ImageBatchService;
 import edu.school21.services.ImageService;
+import edu.school21.services.ImageUploadService;
+import edu.school21.utils.DecompressedImageCache;
+import edu.school21.utils.ImageResponseUtils;
+import edu.school21.utils.ImageUtils;
+import edu.school21.utils.MappingUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -24,9 +36,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 @Tag(name = "Image", description = "Image operations")
@@ -34,10 +50,25 @@ import java.util.UUID;
 @RestController
 @RequestMapping("/api/v1/images")
 public class ImageController {
+    private MappingUtils mappingUtils;
     private ImageService imageService;
+    private ImageBatchService imageBatchService;
+    private ImageUploadService imageUploadService;
+    private ImageResponseUtils imageResponseUtils;
+    private DecompressedImageCache decompressedImageCache;
 
-    public ImageController(ImageService imageService) {
+    public ImageController(MappingUtils mappingUtils,
+                           ImageService imageService,
+                           ImageBatchService imageBatchService,
+                           ImageUploadService imageUploadService,
+                           ImageResponseUtils imageResponseUtils,
+                           DecompressedImageCache decompressedImageCache) {
+        this.mappingUtils = mappingUtils;
         this.imageService = imageService;
+        this.imageBatchService = imageBatchService;
+        this.imageUploadService = imageUploadService;
+        this.imageResponseUtils = imageResponseUtils;
+        this.decompressedImageCache = decompressedImageCache;
     }
 
     @Operation(summary = "Get image by id")
@@ -46,15 +77,31 @@ public class ImageController {
                     content = {@Content(mediaType = "application/octet-stream",
                             schema = @Schema(implementation = byte[].class))
                     }),
+            @ApiResponse(responseCode = "304", description = "Image not modified since the ETag in If-None-Match"),
+            @ApiResponse(responseCode = "400", description = "Bad request",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    }),
             @ApiResponse(responseCode = "404", description = "Image not found",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(implementation = ErrorInfoDto.class))
                     })
     })
     @GetMapping(value = "/{id}",
-            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public byte[] getImage(@PathVariable UUID id) {
-        return imageService.findById(id).getImage();
+            produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE,
+                    ImageUtils.IMAGE_WEBP_VALUE, ImageUtils.IMAGE_AVIF_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> getImage(
+            @PathVariable UUID id,
+            @RequestParam(value = "w", required = false)
+            @Min(value = 1, message = "must be greater than 0")
+            @Max(value = 4096, message = "must be less than 4097")
+            Integer width,
+            @RequestParam(value = "h", required = false)
+            @Min(value = 1, message = "must be greater than 0")
+            @Max(value = 4096, message = "must be less than 4097")
+            Integer height,
+            WebRequest webRequest) {
+        return imageResponseUtils.toResponse(id, width, height, webRequest);
     }
 
     @Operation(summary = "Create image")
@@ -80,6 +127,88 @@ public class ImageController {
         return imageService.saveImage(image);
     }
 
+    @Operation(summary = "Create images from several files")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Images saved successfully, " +
+                    "ids are returned in the order of the files",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(type = "array", implementation = MessageDto.class))
+                    }),
+            @ApiResponse(responseCode = "400", description = "File cannot be empty",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PostMapping("/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<MessageDto> saveImages(
+            @NotEmpty(message = "cannot be empty")
+            @RequestParam("files") List<MultipartFile> files) throws IOException {
+        List<byte[]> contents = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            if (file.isEmpty()) {
+                throw new EmptyFileException("File cannot be empty");
+            }
+            contents.add(file.getBytes());
+        }
+        return imageBatchService.saveImages(contents);
+    }
+
+    @Operation(summary = "Create image asynchronously")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Image accepted for processing, " +
+                    "returns the upload job to poll",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ImageUploadJobDto.class))
+                    }),
+            @ApiResponse(responseCode = "400", description = "File cannot be empty",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    }),
+            @ApiResponse(responseCode = "503", description = "Upload queue is full",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PostMapping("/async")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public ImageUploadJobDto saveImageAsync(
+            @NotNull(message = "cannot be empty")
+            @RequestParam("file") MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new EmptyFileException("File cannot be empty");
+        }
+        return mappingUtils.convertToDto(imageUploadService.submit(file));
+    }
+
+    @Operation(summary = "Get asynchronous image upload job by id")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Success",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ImageUploadJobDto.class))
+                    }),
+            @ApiResponse(responseCode = "404", description = "Upload job not found",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @GetMapping("/async/{id}")
+    public ImageUploadJobDto getUploadJob(@PathVariable UUID id) {
+        return mappingUtils.convertToDto(imageUploadService.findJobById(id));
+    }
+
+    @Operation(summary = "Get decompressed image cache statistics")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Success",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ImageCacheStatsDto.class))
+                    })
+    })
+    @GetMapping("/cache")
+    public ImageCacheStatsDto getCacheStats() {
+        return mappingUtils.convertToDto(decompressedImageCache);
+    }
+
     @Operation(summary = "Create or update image by id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Update exists image or adds a new image " +
@@ -2,8 +2,16 @@ package edu.school21.controllers;
 
 import edu.school21.dto.ErrorInfoDto;
 import edu.school21.dto.ProductDto;
+import edu.school21.dto.ReservationDto;
+import edu.school21.dto.ReservationErrorInfoDto;
+import edu.school21.dto.StockHoldDto;
+import edu.school21.models.PageCursor;
 import edu.school21.models.Product;
+import edu.school21.models.StockHold;
 import edu.school21.services.ProductService;
+import edu.school21.services.StockHoldService;
+import edu.school21.utils.ImageResponseUtils;
+import edu.school21.utils.ImageUtils;
 import edu.school21.utils.MappingUtils;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -15,8 +23,10 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -29,6 +39,8 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.UUID;
@@ -38,13 +50,20 @@ import java.util.UUID;
 @RestController
 @RequestMapping("/api/v1/products")
 public class ProductController {
+    private static final int MAX_LIMIT = 25;
     private MappingUtils mappingUtils;
     private ProductService productService;
+    private ImageResponseUtils imageResponseUtils;
+    private StockHoldService stockHoldService;
 
     public ProductController(MappingUtils mappingUtils,
-                             ProductService productService) {
+                             ProductService productService,
+                             ImageResponseUtils imageResponseUtils,
+                             StockHoldService stockHoldService) {
         this.mappingUtils = mappingUtils;
         this.productService = productService;
+        this.imageResponseUtils = imageResponseUtils;
+        this.stockHoldService = stockHoldService;
     }
 
     @Operation(summary = "Get product by id")
@@ -66,7 +85,9 @@ public class ProductController {
 
     @Operation(summary = "Get all products with pagination")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Success",
+            @ApiResponse(responseCode = "200", description = "Success. With limit or cursor and without offset " +
+                    "the page starts after the cursor and the next page cursor is returned in the " +
+                    PageCursor.NEXT_CURSOR_HEADER + " header",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(type = "array", implementation = ProductDto.class))
                     }),
@@ -76,22 +97,37 @@ public class ProductController {
                     })
     })
     @GetMapping
-    public List<ProductDto> findAll(
+    public ResponseEntity<List<ProductDto>> findAll(
             @RequestParam(required = false)
             @Min(value = 1, message = "must be greater than 0")
             @Max(value = 25, message = "must be less than 26")
             Integer limit,
             @RequestParam(required = false)
             @Min(value = 0, message = "must be positive")
-            Integer offset) {
-        if (limit == null || offset == null) {
-            return productService.findAll().stream()
+            Integer offset,
+            @RequestParam(required = false)
+            String cursor) {
+        if (cursor != null || limit != null && offset == null) {
+            Slice<Product> products = productService.findAll(cursor == null ? null : PageCursor.decode(cursor),
+                    limit == null ? MAX_LIMIT : limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (products.hasNext()) {
+                Product last = products.getContent().get(products.getNumberOfElements() - 1);
+                response.header(PageCursor.NEXT_CURSOR_HEADER,
+                        new PageCursor(last.getName(), last.getId()).encode());
+            }
+            return response.body(products.stream()
                     .map(mappingUtils::convertToDto)
-                    .toList();
+                    .toList());
         }
-        return productService.findAll(PageRequest.of(offset, limit)).stream()
+        if (limit == null) {
+            return ResponseEntity.ok(productService.findAll().stream()
+                    .map(mappingUtils::convertToDto)
+                    .toList());
+        }
+        return ResponseEntity.ok(productService.findAll(PageRequest.of(offset, limit)).stream()
                 .map(mappingUtils::convertToDto)
-                .toList();
+                .toList());
     }
 
     @Operation(summary = "Get product image by product id")
@@ -100,15 +136,31 @@ public class ProductController {
                     content = {@Content(mediaType = "application/ocet-streama",
                             schema = @Schema(implementation = byte[].class))
                     }),
+            @ApiResponse(responseCode = "304", description = "Image not modified since the ETag in If-None-Match"),
+            @ApiResponse(responseCode = "400", description = "Bad request",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    }),
             @ApiResponse(responseCode = "404", description = "Not found ima",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(implementation = ErrorInfoDto.class))
                     })
     })
     @GetMapping(value = "/image/{id}",
-            produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public byte[] getImage(@PathVariable("id") UUID id) {
-        return productService.getImageByProductId(id);
+            produces = {MediaType.IMAGE_JPEG_VALUE, MediaType.IMAGE_PNG_VALUE, MediaType.IMAGE_GIF_VALUE,
+                    ImageUtils.IMAGE_WEBP_VALUE, ImageUtils.IMAGE_AVIF_VALUE, MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    public ResponseEntity<StreamingResponseBody> getImage(
+            @PathVariable("id") UUID id,
+            @RequestParam(value = "w", required = false)
+            @Min(value = 1, message = "must be greater than 0")
+            @Max(value = 4096, message = "must be less than 4097")
+            Integer width,
+            @RequestParam(value = "h", required = false)
+            @Min(value = 1, message = "must be greater than 0")
+            @Max(value = 4096, message = "must be less than 4097")
+            Integer height,
+            WebRequest webRequest) {
+        return imageResponseUtils.toResponse(productService.findImageByProductId(id), width, height, webRequest);
     }
 
     @Operation(summary = "Create product")
@@ -200,6 +252,114 @@ public class ProductController {
         return mappingUtils.convertToDto(product);
     }
 
+    @Operation(summary = "Split product stock into slot rows")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Redistributes the product stock evenly " +
+                    "across the given number of slot rows and returns the product with its total stock.",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ProductDto.class))
+                    }),
+            @ApiResponse(responseCode = "400", description = "Bad request",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    }),
+            @ApiResponse(responseCode = "404", description = "Not found product",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PatchMapping("/stock-slots/{id}")
+    public ProductDto reshardProduct(
+            @PathVariable("id") UUID id,
+            @Min(value = 0, message = "slots: must be greater than or equal to 0")
+            @Max(value = 256, message = "slots: must be less than or equal to 256")
+            @RequestParam("slots") Integer slots) {
+        Product product = productService.reshardProduct(id, slots);
+        return mappingUtils.convertToDto(product);
+    }
+
+    @Operation(summary = "Reserve stock for several products at once")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Reduces the amount of every basket product " +
+                    "in one transaction and returns the updated products.",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(type = "array", implementation = ProductDto.class))
+                    }),
+            @ApiResponse(responseCode = "400", description = "Bad request or insufficient stock, " +
+                    "nothing is reserved and every shortfall is reported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ReservationErrorInfoDto.class))
+                    }),
+            @ApiResponse(responseCode = "404", description = "Not found product",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PostMapping("/reservations")
+    public List<ProductDto> reserveProducts(@Valid @RequestBody ReservationDto reservationDto) {
+        return productService.reserveProducts(reservationDto.getLines().stream()
+                        .map(mappingUtils::convertToEntity)
+                        .toList())
+                .stream()
+                .map(mappingUtils::convertToDto)
+                .toList();
+    }
+
+    @Operation(summary = "Hold stock for several products until the hold expires")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Reduces the amount of every basket product " +
+                    "and returns the hold. The stock returns to the warehouse unless the hold is confirmed " +
+                    "within ttl_seconds.",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = StockHoldDto.class))
+                    }),
+            @ApiResponse(responseCode = "400", description = "Bad request or insufficient stock, " +
+                    "nothing is held and every shortfall is reported",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ReservationErrorInfoDto.class))
+                    }),
+            @ApiResponse(responseCode = "404", description = "Not found product",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PostMapping("/holds")
+    @ResponseStatus(HttpStatus.CREATED)
+    public StockHoldDto createHold(@Valid @RequestBody StockHoldDto stockHoldDto) {
+        StockHold stockHold = stockHoldService.createHold(stockHoldDto.getLines().stream()
+                .map(mappingUtils::convertToEntity)
+                .toList(), stockHoldDto.getTtlSeconds());
+        return mappingUtils.convertToDto(stockHold);
+    }
+
+    @Operation(summary = "Confirm stock hold by id")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "The held stock stays reduced"),
+            @ApiResponse(responseCode = "404", description = "Not found, released or expired stock hold",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @PostMapping("/holds/{id}/confirm")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void confirmHold(@PathVariable("id") UUID id) {
+        stockHoldService.confirmHold(id);
+    }
+
+    @Operation(summary = "Release stock hold by id")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "The held stock returns to the warehouse"),
+            @ApiResponse(responseCode = "404", description = "Not found, confirmed or expired stock hold",
+                    content = {@Content(mediaType = "application/json",
+                            schema = @Schema(implementation = ErrorInfoDto.class))
+                    })
+    })
+    @DeleteMapping("/holds/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void releaseHold(@PathVariable("id") UUID id) {
+        stockHoldService.releaseHold(id);
+    }
+
     @Operation(summary = "Delete product by id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "204", description = "Product successfully deleted"),
@@ -2,6 +2,7 @@ package edu.school21.controllers;
 
 import edu.school21.dto.ErrorInfoDto;
 import edu.school21.dto.SupplierDto;
+import edu.school21.models.PageCursor;
 import edu.school21.models.Supplier;
 import edu.school21.services.SupplierService;
 import edu.school21.utils.MappingUtils;
@@ -15,7 +16,9 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -37,6 +40,7 @@ import java.util.UUID;
 @RestController
 @RequestMapping("/api/v1/suppliers")
 public class SupplierController {
+    private static final int MAX_LIMIT = 25;
     private MappingUtils mappingUtils;
     private SupplierService supplierService;
 
@@ -65,7 +69,9 @@ public class SupplierController {
 
     @Operation(summary = "Get all suppliers with pagination")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Success",
+            @ApiResponse(responseCode = "200", description = "Success. With limit or cursor and without offset " +
+                    "the page starts after the cursor and the next page cursor is returned in the " +
+                    PageCursor.NEXT_CURSOR_HEADER + " header",
                     content = {@Content(mediaType = "application/json",
                             schema = @Schema(type = "array", implementation = SupplierDto.class))
                     }),
@@ -75,22 +81,37 @@ public class SupplierController {
                     })
     })
     @GetMapping
-    public List<SupplierDto> getSuppliers(
+    public ResponseEntity<List<SupplierDto>> getSuppliers(
             @RequestParam(required = false)
             @Min(value = 1, message = "must be greater than 0")
             @Max(value = 25, message = "must be less than 26")
             Integer limit,
             @RequestParam(required = false)
             @Min(value = 0, message = "must be positive")
-            Integer offset) {
-        if (limit == null || offset == null) {
-            return supplierService.findAll().stream()
+            Integer offset,
+            @RequestParam(required = false)
+            String cursor) {
+        if (cursor != null || limit != null && offset == null) {
+            Slice<Supplier> suppliers = supplierService.findAll(cursor == null ? null : PageCursor.decode(cursor),
+                    limit == null ? MAX_LIMIT : limit);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (suppliers.hasNext()) {
+                Supplier last = suppliers.getContent().get(suppliers.getNumberOfElements() - 1);
+                response.header(PageCursor.NEXT_CURSOR_HEADER,
+                        new PageCursor(last.getName(), last.getId()).encode());
+            }
+            return response.body(suppliers.stream()
+                    .map(mappingUtils::convertToDto)
+                    .toList());
+        }
+        if (limit == null) {
+            return ResponseEntity.ok(supplierService.findAll().stream()
                     .map(mappingUtils::convertToDto)
-                    .toList();
+                    .toList());
         }
-        return supplierService.findAll(PageRequest.of(offset, limit)).stream()
+        return ResponseEntity.ok(supplierService.findAll(PageRequest.of(offset, limit)).stream()
                 .map(mappingUtils::convertToDto)
-                .toList();
+                .toList());
     }
 
     @Operation(summary = "Create supplier")
@@ -0,0 +1,28 @@
+package edu.school21.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageCacheStatsDto {
+    @Schema(description = "Number of requests served from the cache", example = "1024")
+    private Long hits;
+
+    @Schema(description = "Number of requests that decompressed the image", example = "64")
+    private Long misses;
+
+    @Schema(description = "Number of entries evicted to fit the size limit", example = "8")
+    private Long evictions;
+
+    @Schema(description = "Total size of the cached images in bytes", example = "8388608")
+    private Long size;
+
+    @JsonProperty("entry_count")
+    @Schema(description = "Number of cached images", example = "56")
+    private Integer entryCount;
+}
@@ -0,0 +1,29 @@
+package edu.school21.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import edu.school21.constants.UploadJobStatus;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageUploadJobDto {
+    @Schema(description = "Upload job id", example = "9b1deb4d-3b7d-4bad-9bdd-2b0d7b3dcb6d")
+    private UUID id;
+
+    @Schema(description = "Upload job status", example = "completed")
+    private UploadJobStatus status;
+
+    @JsonProperty("image_id")
+    @Schema(description = "Id of the saved image, set when the job is completed",
+            example = "3cbd91f3-17d1-4969-bd30-d444f8b50504")
+    private UUID imageId;
+
+    @Schema(description = "Error message, set when the job is failed")
+    private String error;
+}
@@ -0,0 +1,20 @@
+package edu.school21.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationDto {
+    @Valid
+    @NotEmpty(message = "lines: cannot be empty")
+    @Schema(description = "Basket lines, the same product may appear several times")
+    private List<ReservationLineDto> lines;
+}
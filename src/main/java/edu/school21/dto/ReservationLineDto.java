@@ -0,0 +1,26 @@
+package edu.school21.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationLineDto {
+    @JsonProperty("product_id")
+    @NotNull(message = "product_id: cannot be empty")
+    @Schema(description = "Product id", example = "9b1deb4d-3b7d-4bad-9bdd-2b0d7b3dcb6d")
+    private UUID productId;
+
+    @NotNull(message = "amount: cannot be empty")
+    @Min(value = 1, message = "amount: must be greater than 0")
+    @Schema(description = "Amount to reserve", example = "2")
+    private Integer amount;
+}
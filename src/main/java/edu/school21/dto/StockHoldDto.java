@@ -0,0 +1,41 @@
+package edu.school21.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockHoldDto {
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private UUID id;
+
+    @Valid
+    @NotEmpty(message = "lines: cannot be empty")
+    @Schema(description = "Basket lines, the same product may appear several times")
+    private List<ReservationLineDto> lines;
+
+    @JsonProperty(value = "ttl_seconds", access = JsonProperty.Access.WRITE_ONLY)
+    @NotNull(message = "ttl_seconds: cannot be empty")
+    @Min(value = 1, message = "ttl_seconds: must be greater than 0")
+    @Max(value = 86400, message = "ttl_seconds: must be less than or equal to 86400")
+    @Schema(description = "How long the stock is held before it returns to the warehouse", example = "900")
+    private Long ttlSeconds;
+
+    @JsonProperty(value = "expires_at", access = JsonProperty.Access.READ_ONLY)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss:SS", timezone = "Europe/Moscow")
+    private Timestamp expiresAt;
+}
@@ -0,0 +1,24 @@
+package edu.school21.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockShortfallDto {
+    @JsonProperty("product_id")
+    @Schema(description = "Product id", example = "9b1deb4d-3b7d-4bad-9bdd-2b0d7b3dcb6d")
+    private UUID productId;
+
+    @Schema(description = "Requested amount of all basket lines with this product", example = "5")
+    private Integer requested;
+
+    @Schema(description = "Available stock", example = "3")
+    private Integer available;
+}
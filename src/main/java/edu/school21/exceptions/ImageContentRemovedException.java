@@ -0,0 +1,7 @@
+package edu.school21.exceptions;
+
+public class ImageContentRemovedException extends RuntimeException {
+    public ImageContentRemovedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,18 @@
+package edu.school21.exceptions;
+
+import edu.school21.models.StockShortfall;
+
+import java.util.List;
+
+public class ReservationFailedException extends InsufficientStockException {
+    private final List<StockShortfall> shortfalls;
+
+    public ReservationFailedException(String message, List<StockShortfall> shortfalls) {
+        super(message);
+        this.shortfalls = shortfalls;
+    }
+
+    public List<StockShortfall> getShortfalls() {
+        return shortfalls;
+    }
+}
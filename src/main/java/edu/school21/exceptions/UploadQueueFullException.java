@@ -0,0 +1,7 @@
+package edu.school21.exceptions;
+
+public class UploadQueueFullException extends RuntimeException {
+    public UploadQueueFullException(String message) {
+        super(message);
+    }
+}
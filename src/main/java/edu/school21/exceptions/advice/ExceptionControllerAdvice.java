@@ -1,9 +1,14 @@
 package edu.school21.exceptions.advice;
 
 import edu.school21.dto.ErrorInfoDto;
+import edu.school21.dto.ReservationErrorInfoDto;
 import edu.school21.exceptions.EmptyFileException;
 import edu.school21.exceptions.InsufficientStockException;
+import edu.school21.exceptions.InvalidCursorException;
+import edu.school21.exceptions.ReservationFailedException;
+import edu.school21.exceptions.UploadQueueFullException;
 import jakarta.persistence.EntityNotFoundException;
+import edu.school21.utils.MappingUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.ConstraintViolationException;
 import org.springframework.dao.DataIntegrityViolationException;
@@ -22,6 +27,12 @@ import java.util.Map;
 
 @RestControllerAdvice
 public class ExceptionControllerAdvice {
+    private MappingUtils mappingUtils;
+
+    public ExceptionControllerAdvice(MappingUtils mappingUtils) {
+        this.mappingUtils = mappingUtils;
+    }
+
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ErrorInfoDto handleMethodArgumentNotValidException(HttpServletRequest req, MethodArgumentNotValidException e) {
@@ -56,6 +67,12 @@ public class ExceptionControllerAdvice {
         return new ErrorInfoDto(req.getRequestURL().toString(), e.getMessage());
     }
 
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidCursorException.class)
+    public ErrorInfoDto handleInvalidCursorException(HttpServletRequest req, InvalidCursorException e) {
+        return new ErrorInfoDto(req.getRequestURL().toString(), e.getMessage());
+    }
+
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler(MissingServletRequestParameterException.class)
     public ErrorInfoDto handleMissingServletRequestParameterException(HttpServletRequest req, MissingServletRequestParameterException e) {
@@ -89,6 +106,22 @@ public class ExceptionControllerAdvice {
         return new ErrorInfoDto(req.getRequestURL().toString(), ex.getMessage());
     }
 
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(ReservationFailedException.class)
+    public ReservationErrorInfoDto handleReservationFailedException(HttpServletRequest req,
+                                                                    ReservationFailedException ex) {
+        return new ReservationErrorInfoDto(req.getRequestURL().toString(), ex.getMessage(),
+                ex.getShortfalls().stream()
+                        .map(mappingUtils::convertToDto)
+                        .toList());
+    }
+
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(UploadQueueFullException.class)
+    public ErrorInfoDto handleUploadQueueFullException(HttpServletRequest req, UploadQueueFullException e) {
+        return new ErrorInfoDto(req.getRequestURL().toString(), e.getMessage());
+    }
+
     @ResponseStatus(HttpStatus.NOT_FOUND)
     @ExceptionHandler(EntityNotFoundException.class)
     public ErrorInfoDto handleEntityNotFoundException(HttpServletRequest req, EntityNotFoundException e) {
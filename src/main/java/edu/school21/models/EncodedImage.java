@@ -0,0 +1,14 @@
+package edu.school21.models;
+
+/**
+ * Подготовленное к записи содержимое изображения: результат хеширования, определения формата и сжатия
+ *
+ * @param hash       - хеш исходных данных
+ * @param mediaType  - формат, определенный по сигнатуре
+ * @param size       - размер исходных данных
+ * @param codec      - идентификатор кодека, которым закодированы данные
+ * @param data       - данные для хранения
+ * @param recompress - ожидает ли запись фонового пересжатия
+ */
+public record EncodedImage(String hash, String mediaType, long size, String codec, byte[] data, boolean recompress) {
+}
@@ -1,12 +1,11 @@
 package edu.school21.models;
 
 import jakarta.persistence.Entity;
-import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
-import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -23,10 +22,13 @@ public class Image {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private UUID id;
 
-    private byte[] image;
+    private String hash;
 
-    @OneToOne(mappedBy = "image", fetch = FetchType.LAZY)
-    private Product product;
+    /**
+     * Исходные (несжатые) данные изображения, передаются при загрузке и в таблице images не хранятся
+     */
+    @Transient
+    private byte[] image;
 
     public Image(byte[] image) {
         this.image = image;
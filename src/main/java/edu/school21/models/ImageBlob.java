@@ -0,0 +1,46 @@
+package edu.school21.models;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "image_blobs")
+public class ImageBlob {
+    @Id
+    private String hash;
+
+    /**
+     * Размер исходного (несжатого) изображения в байтах
+     */
+    private Long size;
+
+    /**
+     * Размер сохраненного (сжатого) изображения в байтах
+     */
+    @Column(name = "stored_length")
+    private Long storedLength;
+
+    /**
+     * Идентификатор кодека, которым сохранены данные (см. ImageCodecRegistry)
+     */
+    private String codec;
+
+    @Column(name = "media_type")
+    private String mediaType;
+
+    @Column(name = "ref_count")
+    private Integer refCount;
+
+    /**
+     * Запись сохранена быстрым кодеком при загрузке и ожидает фонового пересжатия кодеком по умолчанию
+     */
+    private Boolean recompress;
+}
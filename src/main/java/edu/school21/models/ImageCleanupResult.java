@@ -0,0 +1,11 @@
+package edu.school21.models;
+
+/**
+ * Результат удаления пачки изображений без товаров
+ *
+ * @param deleted        - количество удаленных изображений
+ * @param reclaimedBytes - количество освобожденных байт сохраненных данных. Содержимое, на которое ссылаются
+ *                       другие изображения, не удаляется и не учитывается
+ */
+public record ImageCleanupResult(int deleted, long reclaimedBytes) {
+}
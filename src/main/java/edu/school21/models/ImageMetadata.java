@@ -0,0 +1,48 @@
+package edu.school21.models;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.Subselect;
+import org.hibernate.annotations.Synchronize;
+
+import java.util.UUID;
+
+/**
+ * Сведения об изображении, достаточные для ответа на запрос: строка images вместе с метаданными содержимого
+ * из image_blobs. Загружается одним запросом и никогда не затрагивает сами данные изображения
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Immutable
+@Subselect("SELECT i.id, i.hash, b.size, b.stored_length, b.codec, b.media_type " +
+        "FROM images i JOIN image_blobs b ON b.hash = i.hash")
+@Synchronize({"images", "image_blobs"})
+public class ImageMetadata {
+    @Id
+    private UUID id;
+
+    private String hash;
+
+    /**
+     * Размер исходного (несжатого) изображения в байтах
+     */
+    private Long size;
+
+    /**
+     * Размер сохраненного (сжатого) изображения в байтах
+     */
+    @Column(name = "stored_length")
+    private Long storedLength;
+
+    private String codec;
+
+    @Column(name = "media_type")
+    private String mediaType;
+}
@@ -0,0 +1,50 @@
+package edu.school21.models;
+
+import edu.school21.constants.UploadJobStatus;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * Задача асинхронной загрузки изображения. Хранится в базе, поэтому статус доступен на любом узле
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Entity
+@Table(name = "image_upload_jobs")
+public class ImageUploadJob {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private UUID id;
+
+    private UploadJobStatus status;
+
+    @Column(name = "image_id")
+    private UUID imageId;
+
+    private String error;
+
+    @CreationTimestamp
+    @Column(name = "created_date")
+    private Timestamp createdDate;
+
+    @UpdateTimestamp
+    @Column(name = "last_update_date")
+    private Timestamp lastUpdateDate;
+
+    public ImageUploadJob(UploadJobStatus status) {
+        this.status = status;
+    }
+}
@@ -0,0 +1,34 @@
+package edu.school21.models;
+
+import edu.school21.exceptions.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Позиция постраничного просмотра: ключ сортировки и идентификатор последней записи страницы.
+ * Следующая страница начинается сразу после этой пары, поэтому ее стоимость не зависит от номера страницы.
+ * Клиенту передается непрозрачной строкой в заголовке X-Next-Cursor
+ *
+ * @param key - значение ключа сортировки последней записи
+ * @param id  - идентификатор последней записи
+ */
+public record PageCursor(String key, UUID id) {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    public static PageCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf(':');
+            return new PageCursor(value.substring(separator + 1), UUID.fromString(value.substring(0, separator)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new InvalidCursorException("cursor: invalid value");
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((id + ":" + key).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -10,6 +10,7 @@ import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToOne;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import lombok.Data;
 import org.hibernate.annotations.UpdateTimestamp;
 
@@ -35,6 +36,13 @@ public class Product {
     @Column(name = "available_stock")
     private Integer availableStock;
 
+    /**
+     * Количество слотов, по которым разложен остаток товара (см. ProductStockSlotRepository).
+     * Меняется только отдельным запросом, поэтому PUT и PATCH его не затирают
+     */
+    @Column(name = "stock_slots", insertable = false, updatable = false)
+    private Integer stockSlots;
+
     @UpdateTimestamp
     @Column(name = "last_update_date")
     private Timestamp lastUpdateDate;
@@ -46,4 +54,10 @@ public class Product {
     @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "image_id")
     private Image image;
+
+    /**
+     * Остаток, вынесенный из available_stock в аренды горячих товаров (см. StockLedgerService) и в слоты
+     */
+    @Transient
+    private Integer detachedStock;
 }
@@ -0,0 +1,12 @@
+package edu.school21.models;
+
+import java.util.UUID;
+
+/**
+ * Строка резервирования: сколько единиц товара списать со склада
+ *
+ * @param productId - идентификатор товара
+ * @param amount    - списываемое количество
+ */
+public record ReservationLine(UUID productId, int amount) {
+}
@@ -0,0 +1,11 @@
+package edu.school21.models;
+
+/**
+ * Данные изображения, снятые с очереди отложенного удаления
+ *
+ * @param hash       - хеш исходного содержимого изображения
+ * @param codec      - идентификатор кодека, которым закодированы данные
+ * @param referenced - true, если image_blobs снова ссылается на эти данные и удалять их нельзя
+ */
+public record RetiredImageData(String hash, String codec, boolean referenced) {
+}
@@ -0,0 +1,16 @@
+package edu.school21.models;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Временный резерв корзины: остаток строк уже списан и вернется на склад, если резерв не подтвердить
+ * до expiresAt
+ *
+ * @param id        - идентификатор резерва
+ * @param expiresAt - срок резерва
+ * @param lines     - строки резерва, по одной на товар
+ */
+public record StockHold(UUID id, Timestamp expiresAt, List<ReservationLine> lines) {
+}
@@ -0,0 +1,13 @@
+package edu.school21.models;
+
+import java.util.UUID;
+
+/**
+ * Нехватка товара при резервировании
+ *
+ * @param productId - идентификатор товара
+ * @param requested - запрошенное количество (сумма всех строк с этим товаром)
+ * @param available - остаток на складе
+ */
+public record StockShortfall(UUID productId, int requested, int available) {
+}
@@ -1,6 +1,8 @@
 package edu.school21.repositories;
 
 import edu.school21.models.Client;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
@@ -12,4 +14,13 @@ import java.util.UUID;
 public interface ClientRepository extends JpaRepository<Client, UUID> {
     @Query("SELECT c FROM Client c WHERE c.name = :name AND c.surname = :surname")
     List<Client> findByNameAndSurname(String name, String surname);
+
+    Slice<Client> findAllByOrderBySurnameAscIdAsc(Pageable pageable);
+
+    /**
+     * Следующая страница после пары (surname, id) читается по индексу clients_surname_id_idx без OFFSET и COUNT
+     */
+    @Query(value = "SELECT * FROM clients WHERE (surname, id) > (:surname, :id) ORDER BY surname, id",
+            nativeQuery = true)
+    Slice<Client> findAllAfter(String surname, UUID id, Pageable pageable);
 }
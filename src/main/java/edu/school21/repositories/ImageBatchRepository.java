@@ -0,0 +1,88 @@
+package edu.school21.repositories;
+
+import edu.school21.models.EncodedImage;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Пакетная запись изображений через JDBC batch: один запрос к базе на пачку строк вместо запроса на строку
+ */
+@Repository
+public class ImageBatchRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public ImageBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * С reWriteBatchedInserts драйвер склеивает пачку в один INSERT, а ON CONFLICT DO UPDATE не может изменить
+     * одну строку дважды за запрос, поэтому каждый хеш должен встречаться в images один раз,
+     * а количество ссылок на него передается в refCounts
+     *
+     * @param images    - новое содержимое без повторов
+     * @param refCounts - количество ссылок на содержимое по хешу
+     */
+    public void insertOrIncrementRefCounts(List<EncodedImage> images, Map<String, Integer> refCounts) {
+        jdbcTemplate.batchUpdate("INSERT INTO image_blobs " +
+                        "(hash, size, stored_length, codec, media_type, ref_count, recompress) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                        "ON CONFLICT (hash) DO UPDATE SET ref_count = image_blobs.ref_count + EXCLUDED.ref_count",
+                images, images.size(), (ps, image) -> {
+                    ps.setString(1, image.hash());
+                    ps.setLong(2, image.size());
+                    ps.setLong(3, image.data().length);
+                    ps.setString(4, image.codec());
+                    ps.setString(5, image.mediaType());
+                    ps.setInt(6, refCounts.get(image.hash()));
+                    ps.setBoolean(7, image.recompress());
+                });
+    }
+
+    /**
+     * @param refCounts - количество новых ссылок по хешу
+     * @return хеши, строк которых уже нет в базе
+     */
+    public List<String> incrementRefCounts(Map<String, Integer> refCounts) {
+        List<Map.Entry<String, Integer>> entries = List.copyOf(refCounts.entrySet());
+        int[][] updated = jdbcTemplate.batchUpdate("UPDATE image_blobs SET ref_count = ref_count + ? WHERE hash = ?",
+                entries, entries.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setString(2, entry.getKey());
+                });
+        List<String> missing = new ArrayList<>();
+        int i = 0;
+        for (int[] batch : updated) {
+            for (int count : batch) {
+                if (count == 0) {
+                    missing.add(entries.get(i).getKey());
+                }
+                i++;
+            }
+        }
+        return missing;
+    }
+
+    public void insertImages(List<UUID> ids, List<String> hashes) {
+        jdbcTemplate.batchUpdate("INSERT INTO images (id, hash) VALUES (?, ?)", new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setObject(1, ids.get(i));
+                ps.setString(2, hashes.get(i));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return ids.size();
+            }
+        });
+    }
+}
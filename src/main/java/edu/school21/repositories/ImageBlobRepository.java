@@ -0,0 +1,75 @@
+package edu.school21.repositories;
+
+import edu.school21.models.ImageBlob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ImageBlobRepository extends ListCrudRepository<ImageBlob, String> {
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_blobs SET ref_count = ref_count + 1 WHERE hash = :hash", nativeQuery = true)
+    int incrementRefCount(String hash);
+
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO image_blobs (hash, size, stored_length, codec, media_type, ref_count, recompress) " +
+            "VALUES (:hash, :size, :storedLength, :codec, :mediaType, 1, :recompress) " +
+            "ON CONFLICT (hash) DO UPDATE SET ref_count = image_blobs.ref_count + 1", nativeQuery = true)
+    int insertOrIncrementRefCount(String hash, long size, long storedLength, String codec, String mediaType,
+                                  boolean recompress);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_blobs SET ref_count = ref_count - 1 WHERE hash = :hash", nativeQuery = true)
+    int decrementRefCount(String hash);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM image_blobs WHERE hash = :hash AND ref_count <= 0", nativeQuery = true)
+    int deleteIfUnreferenced(String hash);
+
+    @Query(value = "SELECT hash FROM image_blobs WHERE hash IN :hashes", nativeQuery = true)
+    List<String> findExistingHashes(Collection<String> hashes);
+
+    @Query(value = "SELECT count(*) FROM image_blobs WHERE recompress", nativeQuery = true)
+    long countPendingRecompression();
+
+    @Query(value = "SELECT hash FROM image_blobs WHERE recompress ORDER BY hash LIMIT :limit", nativeQuery = true)
+    List<String> findPendingRecompression(int limit);
+
+    /**
+     * Переключение на новые данные выполняется только если запись не изменилась с момента чтения (тот же кодек)
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_blobs SET codec = :codec, stored_length = :storedLength, recompress = false " +
+            "WHERE hash = :hash AND codec = :previousCodec", nativeQuery = true)
+    int updateRecompressed(String hash, String codec, long storedLength, String previousCodec);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_blobs SET recompress = false WHERE hash = :hash", nativeQuery = true)
+    int completeRecompression(String hash);
+
+    @Query(value = "SELECT * FROM image_blobs WHERE hash = :hash FOR UPDATE", nativeQuery = true)
+    Optional<ImageBlob> findByIdForUpdate(String hash);
+
+    /**
+     * Записи, перенесенные из старой схемы (images.image) и еще не распакованные, имеют size = -1
+     */
+    @Query(value = "SELECT hash FROM image_blobs WHERE size < 0 ORDER BY hash", nativeQuery = true)
+    List<String> findMigrated();
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM image_blobs WHERE hash = :hash AND size < 0", nativeQuery = true)
+    int deleteMigrated(String hash);
+}
@@ -0,0 +1,18 @@
+package edu.school21.repositories;
+
+import edu.school21.models.ImageMetadata;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ImageMetadataRepository extends ListCrudRepository<ImageMetadata, UUID> {
+    /**
+     * Изображение товара одним запросом: image_id берется из строки товара без соединения с images
+     */
+    @Query("SELECT m FROM ImageMetadata m WHERE m.id = (SELECT p.image.id FROM Product p WHERE p.id = :productId)")
+    Optional<ImageMetadata> findByProductId(UUID productId);
+}
@@ -1,11 +1,34 @@
 package edu.school21.repositories;
 
 import edu.school21.models.Image;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.ListCrudRepository;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface ImageRepository extends ListCrudRepository<Image, UUID> {
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Image i WHERE i.id = :id")
+    int deleteImageById(UUID id);
+
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE images SET hash = :hash WHERE hash = :previousHash", nativeQuery = true)
+    int replaceHash(String previousHash, String hash);
+
+    /**
+     * Изображения, на которые не ссылается ни один товар, старше gracePeriodSeconds. Строки, заблокированные
+     * другими транзакциями (например, создаваемым товаром), пропускаются
+     */
+    @Query(value = "SELECT i.id FROM images i " +
+            "WHERE i.created_date < now() - make_interval(secs => :gracePeriodSeconds) " +
+            "AND NOT EXISTS (SELECT 1 FROM products p WHERE p.image_id = i.id) " +
+            "ORDER BY i.created_date LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<UUID> findOrphanedImageIds(long gracePeriodSeconds, int limit);
 }
@@ -0,0 +1,53 @@
+package edu.school21.repositories;
+
+import edu.school21.models.RetiredImageData;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Очередь отложенного удаления данных изображений, замененных пересжатием. Данные остаются в хранилище
+ * до истечения срока ожидания, поэтому загрузки, которые уже прочитали старый кодек, дочитывают старую копию
+ */
+@Repository
+public class ImageRetiredDataRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public ImageRetiredDataRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Метод ставит данные в очередь на удаление. Повторная постановка отсчитывает срок заново.
+     * Запись идет в отдельной транзакции, поэтому метод можно вызывать и после отката текущей
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void retire(String hash, String codec) {
+        jdbcTemplate.update("INSERT INTO image_data_retired (hash, codec) VALUES (?, ?) " +
+                "ON CONFLICT (hash, codec) DO UPDATE SET retired_at = now()", hash, codec);
+    }
+
+    /**
+     * Метод снимает с очереди пачку записей старше gracePeriodSeconds. Записи, заблокированные другим узлом,
+     * пропускаются. Для каждой записи проверяется, не ссылается ли image_blobs на те же данные снова
+     * (например, содержимое удалили и загрузили заново тем же кодеком)
+     *
+     * @return снятые с очереди записи
+     */
+    public List<RetiredImageData> deleteRetired(long gracePeriodSeconds, int limit) {
+        return jdbcTemplate.query("WITH due AS (" +
+                        "DELETE FROM image_data_retired WHERE (hash, codec) IN (" +
+                        "SELECT hash, codec FROM image_data_retired " +
+                        "WHERE retired_at < now() - make_interval(secs => ?) " +
+                        "ORDER BY retired_at LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING hash, codec) " +
+                        "SELECT due.hash, due.codec, EXISTS (SELECT 1 FROM image_blobs b " +
+                        "WHERE b.hash = due.hash AND b.codec = due.codec) AS referenced FROM due",
+                (rs, rowNum) -> new RetiredImageData(rs.getString("hash"), rs.getString("codec"),
+                        rs.getBoolean("referenced")),
+                gracePeriodSeconds, limit);
+    }
+}
@@ -0,0 +1,41 @@
+package edu.school21.repositories;
+
+import edu.school21.models.ImageUploadJob;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.ListCrudRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.UUID;
+
+@Repository
+public interface ImageUploadJobRepository extends ListCrudRepository<ImageUploadJob, UUID> {
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM image_upload_jobs WHERE status IN ('completed', 'failed') " +
+            "AND last_update_date < now() - make_interval(secs => :retentionSeconds)", nativeQuery = true)
+    int deleteFinishedJobs(long retentionSeconds);
+
+    /**
+     * Метод переводит незавершенные задачи в статус failed, например когда узел остановился раньше,
+     * чем обработал их
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_upload_jobs SET status = 'failed', error = :error, last_update_date = now() " +
+            "WHERE id IN :ids AND status IN ('pending', 'processing')", nativeQuery = true)
+    int failUnfinishedJobs(Collection<UUID> ids, String error);
+
+    /**
+     * Метод переводит в статус failed задачи, которые не завершились за retentionSeconds: их узел остановился
+     * аварийно и не запустился снова
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE image_upload_jobs SET status = 'failed', error = :error, last_update_date = now() " +
+            "WHERE status IN ('pending', 'processing') " +
+            "AND last_update_date < now() - make_interval(secs => :retentionSeconds)", nativeQuery = true)
+    int failStaleJobs(long retentionSeconds, String error);
+}
@@ -0,0 +1,46 @@
+package edu.school21.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Уменьшенные копии изображений. Каждая строка держит одну ссылку (ref_count) на содержимое копии в image_blobs
+ */
+@Repository
+public class ImageVariantRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public ImageVariantRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Optional<String> findVariantHash(String hash, int width, int height) {
+        return jdbcTemplate.queryForList("SELECT variant_hash FROM image_variants " +
+                        "WHERE hash = ? AND width = ? AND height = ?", String.class, hash, width, height)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * @return false, если копия с такими размерами уже сохранена параллельным запросом
+     */
+    public boolean insert(String hash, int width, int height, String variantHash) {
+        return jdbcTemplate.update("INSERT INTO image_variants (hash, width, height, variant_hash) " +
+                "VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING", hash, width, height, variantHash) > 0;
+    }
+
+    /**
+     * Метод удаляет копии изображения, если на само изображение ссылок не осталось
+     *
+     * @param hash - хеш содержимого исходного изображения
+     * @return хеши содержимого удаленных копий, ссылки на которые нужно освободить
+     */
+    public List<String> deleteIfUnreferenced(String hash) {
+        return jdbcTemplate.queryForList("DELETE FROM image_variants v USING image_blobs b " +
+                "WHERE v.hash = b.hash AND b.hash = ? AND b.ref_count <= 0 RETURNING v.variant_hash",
+                String.class, hash);
+    }
+}
@@ -1,11 +1,47 @@
 package edu.school21.repositories;
 
 import edu.school21.models.Product;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, UUID> {
+    Slice<Product> findAllByOrderByNameAscIdAsc(Pageable pageable);
+
+    /**
+     * Следующая страница после пары (name, id) читается по индексу products_name_id_idx без OFFSET и COUNT
+     */
+    @Query(value = "SELECT * FROM products WHERE (name, id) > (:name, :id) ORDER BY name, id", nativeQuery = true)
+    Slice<Product> findAllAfter(String name, UUID id, Pageable pageable);
+
+    /**
+     * Проверка остатка и списание выполняются одним условным UPDATE, поэтому параллельные запросы
+     * (в том числе с разных узлов) не могут списать больше, чем есть на складе
+     *
+     * @return товар после списания или пустой Optional, если товара нет или остатка недостаточно
+     */
+    @Transactional
+    @Query(value = "UPDATE products SET available_stock = available_stock - :amount, " +
+            "last_update_date = now()::TIMESTAMP(2) " +
+            "WHERE id = :id AND available_stock >= :amount RETURNING *", nativeQuery = true)
+    Optional<Product> reduceAvailableStock(UUID id, int amount);
+
+    /**
+     * Строки блокируются в порядке id, поэтому транзакции, резервирующие пересекающиеся наборы товаров,
+     * ждут друг друга, а не взаимно блокируются
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM Product p WHERE p.id IN :ids ORDER BY p.id")
+    List<Product> findAllByIdForUpdate(Collection<UUID> ids);
 }
@@ -0,0 +1,170 @@
+package edu.school21.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Слоты остатка товаров с products.stock_slots > 0. Списание берет случайный слот с достаточным остатком,
+ * пропуская заблокированные, поэтому параллельные покупатели по возможности не ждут друг друга на одной строке.
+ * Строка products блокируется раньше строк product_stock_slots во всех запросах, которые блокируют обе таблицы
+ */
+@Repository
+public class ProductStockSlotRepository {
+    private static final int WAIT_ATTEMPTS = 3;
+    private JdbcTemplate jdbcTemplate;
+
+    public ProductStockSlotRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Метод списывает товар из случайного слота, пропуская заблокированные. Если все слоты с нужным количеством
+     * заблокированы (обычное состояние при конкуренции за товар), списание ждет один из них и повторяется
+     * не больше WAIT_ATTEMPTS раз. Только если ни в одном слоте нет нужного количества, товар и все его слоты
+     * блокируются, списание идет из общего остатка, а оставшееся количество заново раскладывается по слотам поровну
+     *
+     * @param productId - идентификатор товара
+     * @param amount    - списываемое количество
+     * @return false, если товара нет, он не разложен по слотам или остатка недостаточно
+     */
+    @Transactional
+    public boolean reduce(UUID productId, int amount) {
+        if (takeFromSlot(productId, amount, true)) {
+            return true;
+        }
+        for (int attempt = 0; attempt < WAIT_ATTEMPTS && hasSlotStock(productId, amount); attempt++) {
+            if (takeFromSlot(productId, amount, false)) {
+                return true;
+            }
+        }
+        return redistribute(productId, amount, null);
+    }
+
+    /**
+     * Метод меняет количество слотов товара, сохраняя полный остаток. При 0 слотов остаток
+     * возвращается в products.available_stock
+     *
+     * @return false, если товара нет
+     */
+    @Transactional
+    public boolean reshard(UUID productId, int slots) {
+        return redistribute(productId, 0, slots);
+    }
+
+    /**
+     * Метод обнуляет слоты товара, например когда остаток задан заново через products.available_stock.
+     * Строка товара должна быть уже заблокирована
+     */
+    public int clear(UUID productId) {
+        return jdbcTemplate.update("UPDATE product_stock_slots SET stock = 0 WHERE product_id = ? AND stock > 0",
+                productId);
+    }
+
+    /**
+     * Метод блокирует слоты товаров, строки которых уже заблокированы, в порядке (product_id, slot)
+     *
+     * @return сумма слотов по идентификатору товара
+     */
+    public Map<UUID, Integer> lockSlotStock(Collection<UUID> productIds) {
+        return sumSlotStock("SELECT product_id, COALESCE(SUM(stock), 0) AS stock FROM (" +
+                "SELECT product_id, stock FROM product_stock_slots WHERE product_id = ANY (?) " +
+                "ORDER BY product_id, slot FOR UPDATE) locked GROUP BY product_id", productIds);
+    }
+
+    /**
+     * @return сумма слотов по идентификатору товара
+     */
+    public Map<UUID, Integer> findSlotStock(Collection<UUID> productIds) {
+        return sumSlotStock("SELECT product_id, SUM(stock) AS stock FROM product_stock_slots " +
+                "WHERE product_id = ANY (?) GROUP BY product_id", productIds);
+    }
+
+    /**
+     * Метод списывает товар из слотов по порядку номеров. Слоты должны быть уже заблокированы,
+     * а их суммы должно хватать (см. lockSlotStock)
+     */
+    public int take(UUID productId, int amount) {
+        return jdbcTemplate.update("WITH ordered AS (" +
+                        "SELECT slot, stock, SUM(stock) OVER (ORDER BY slot) - stock AS before " +
+                        "FROM product_stock_slots WHERE product_id = ?) " +
+                        "UPDATE product_stock_slots s SET stock = s.stock - LEAST(o.stock, ? - o.before) " +
+                        "FROM ordered o WHERE s.product_id = ? AND s.slot = o.slot AND o.before < ? AND o.stock > 0",
+                productId, amount, productId, amount);
+    }
+
+    /**
+     * Метод списывает товар из случайного слота с достаточным остатком. Без skipLocked запрос ждет
+     * заблокированный слот, и если после ожидания остатка в нем уже не хватает, ничего не списывает
+     */
+    private boolean takeFromSlot(UUID productId, int amount, boolean skipLocked) {
+        return !jdbcTemplate.queryForList("UPDATE product_stock_slots s SET stock = s.stock - ? " +
+                        "FROM (SELECT slot FROM product_stock_slots WHERE product_id = ? AND stock >= ? " +
+                        "ORDER BY random() LIMIT 1 FOR UPDATE" + (skipLocked ? " SKIP LOCKED" : "") + ") picked " +
+                        "WHERE s.product_id = ? AND s.slot = picked.slot RETURNING s.stock",
+                Integer.class, amount, productId, amount, productId).isEmpty();
+    }
+
+    /**
+     * Проверка без блокировки: видны последние закоммиченные остатки слотов, в том числе заблокированных
+     */
+    private boolean hasSlotStock(UUID productId, int amount) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM product_stock_slots " +
+                "WHERE product_id = ? AND stock >= ?)", Boolean.class, productId, amount));
+    }
+
+    /**
+     * Метод блокирует товар и его слоты, списывает amount из полного остатка и раскладывает оставшееся
+     * по slots слотам (null - по текущему количеству слотов товара)
+     */
+    private boolean redistribute(UUID productId, int amount, Integer slots) {
+        List<Map<String, Object>> products = jdbcTemplate.queryForList("SELECT available_stock, stock_slots " +
+                "FROM products WHERE id = ? FOR UPDATE", productId);
+        if (products.isEmpty()) {
+            return false;
+        }
+        int count = slots != null ? slots : (Integer) products.get(0).get("stock_slots");
+        if (count == 0 && slots == null) {
+            return false;
+        }
+        int total = (Integer) products.get(0).get("available_stock")
+                + lockSlotStock(List.of(productId)).getOrDefault(productId, 0);
+        if (total < amount) {
+            return false;
+        }
+        int remaining = total - amount;
+        jdbcTemplate.update("DELETE FROM product_stock_slots WHERE product_id = ?", productId);
+        if (count > 0) {
+            jdbcTemplate.update("INSERT INTO product_stock_slots (product_id, slot, stock) " +
+                            "SELECT ?, slot, ? + CASE WHEN slot < ? THEN 1 ELSE 0 END " +
+                            "FROM generate_series(0, ? - 1) slot",
+                    productId, remaining / count, remaining % count, count);
+        }
+        jdbcTemplate.update("UPDATE products SET available_stock = ?, stock_slots = ?, " +
+                        "last_update_date = now()::TIMESTAMP(2) WHERE id = ?",
+                count == 0 ? remaining : 0, count, productId);
+        return true;
+    }
+
+    private Map<UUID, Integer> sumSlotStock(String sql, Collection<UUID> productIds) {
+        Map<UUID, Integer> stock = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return stock;
+        }
+        jdbcTemplate.query(sql, uuidArray(productIds), rs -> {
+            stock.put(rs.getObject("product_id", UUID.class), rs.getInt("stock"));
+        });
+        return stock;
+    }
+
+    private static PreparedStatementSetter uuidArray(Collection<UUID> ids) {
+        return ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids.toArray()));
+    }
+}
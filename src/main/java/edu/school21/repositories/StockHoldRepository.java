@@ -0,0 +1,131 @@
+package edu.school21.repositories;
+
+import edu.school21.models.ReservationLine;
+import edu.school21.models.StockHold;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+@Repository
+public class StockHoldRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public StockHoldRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Метод сохраняет резерв. Остаток должен быть списан в той же транзакции
+     *
+     * @param lines      - строки резерва, по одной на товар
+     * @param ttlSeconds - срок резерва в секундах
+     */
+    public StockHold insert(List<ReservationLine> lines, long ttlSeconds) {
+        StockHold hold = jdbcTemplate.queryForObject("INSERT INTO stock_holds (expires_at) " +
+                        "VALUES (now() + make_interval(secs => ?)) RETURNING id, expires_at",
+                (rs, rowNum) -> new StockHold(rs.getObject("id", UUID.class), rs.getTimestamp("expires_at"), lines),
+                ttlSeconds);
+        jdbcTemplate.batchUpdate("INSERT INTO stock_hold_lines (hold_id, product_id, amount) VALUES (?, ?, ?)",
+                lines, lines.size(), (ps, line) -> {
+                    ps.setObject(1, hold.id());
+                    ps.setObject(2, line.productId());
+                    ps.setInt(3, line.amount());
+                });
+        return hold;
+    }
+
+    /**
+     * Метод удаляет резерв без возврата остатка (товар продан)
+     *
+     * @return false, если резерва нет: он отменен, истек или не существовал
+     */
+    public boolean confirm(UUID id) {
+        return jdbcTemplate.update("DELETE FROM stock_holds WHERE id = ?", id) > 0;
+    }
+
+    /**
+     * Метод удаляет резервы и возвращает их остаток в products.available_stock. Товары блокируются
+     * запросом с ORDER BY id, как при резервировании корзины: порядок UUID в Java (сравнение знаковых long)
+     * не совпадает с порядком uuid в PostgreSQL
+     *
+     * @param ids         - идентификаторы резервов
+     * @param expiredOnly - удалять только резервы с истекшим сроком
+     * @return идентификаторы удаленных резервов
+     */
+    @Transactional
+    public List<UUID> release(Collection<UUID> ids, boolean expiredOnly) {
+        // строки резерва удаляются каскадно после запроса, поэтому в самом запросе они еще видны
+        Set<UUID> released = new LinkedHashSet<>();
+        Map<UUID, Integer> amounts = new HashMap<>();
+        jdbcTemplate.query("WITH hold AS (DELETE FROM stock_holds WHERE id = ANY (?)" +
+                        (expiredOnly ? " AND expires_at <= now()" : "") + " RETURNING id) " +
+                        "SELECT hold.id, l.product_id, l.amount FROM hold " +
+                        "LEFT JOIN stock_hold_lines l ON l.hold_id = hold.id",
+                uuidArray(ids), rs -> {
+                    released.add(rs.getObject("id", UUID.class));
+                    UUID productId = rs.getObject("product_id", UUID.class);
+                    if (productId != null) {
+                        amounts.merge(productId, rs.getInt("amount"), Integer::sum);
+                    }
+                });
+        if (amounts.isEmpty()) {
+            return List.copyOf(released);
+        }
+        jdbcTemplate.query("SELECT id FROM products WHERE id = ANY (?) ORDER BY id FOR UPDATE",
+                uuidArray(amounts.keySet()), rs -> {
+                });
+        List<Map.Entry<UUID, Integer>> entries = new ArrayList<>(amounts.entrySet());
+        jdbcTemplate.batchUpdate("UPDATE products SET available_stock = available_stock + ?, " +
+                        "last_update_date = now()::TIMESTAMP(2) WHERE id = ?",
+                entries, entries.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setObject(2, entry.getKey());
+                });
+        return List.copyOf(released);
+    }
+
+    /**
+     * @return срок по идентификатору для существующих резервов
+     */
+    public Map<UUID, Timestamp> findExpirations(Collection<UUID> ids) {
+        Map<UUID, Timestamp> expirations = new HashMap<>();
+        jdbcTemplate.query("SELECT id, expires_at FROM stock_holds WHERE id = ANY (?)", uuidArray(ids), rs -> {
+            expirations.put(rs.getObject("id", UUID.class), rs.getTimestamp("expires_at"));
+        });
+        return expirations;
+    }
+
+    /**
+     * Метод передает в consumer идентификатор и срок каждого резерва
+     */
+    public void findAllExpirations(BiConsumer<UUID, Timestamp> consumer) {
+        jdbcTemplate.query("SELECT id, expires_at FROM stock_holds", rs -> {
+            consumer.accept(rs.getObject("id", UUID.class), rs.getTimestamp("expires_at"));
+        });
+    }
+
+    /**
+     * @return идентификаторы резервов, срок которых истек раньше чем graceSeconds назад
+     */
+    public List<UUID> findOverdue(long graceSeconds, int limit) {
+        return jdbcTemplate.queryForList("SELECT id FROM stock_holds " +
+                        "WHERE expires_at < now() - make_interval(secs => ?) ORDER BY expires_at LIMIT ?",
+                UUID.class, graceSeconds, limit);
+    }
+
+    private static PreparedStatementSetter uuidArray(Collection<UUID> ids) {
+        return ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids.toArray()));
+    }
+}
@@ -0,0 +1,191 @@
+package edu.school21.repositories;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Аренды горячих товаров. Строка products блокируется раньше строки stock_leases во всех запросах,
+ * которые меняют обе таблицы
+ */
+@Repository
+public class StockLeaseRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public StockLeaseRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Метод берет (или продлевает) аренду товара, если она свободна, истекла или уже принадлежит узлу,
+     * и переносит весь остаток из products.available_stock в escrow аренды. Escrow истекшей аренды другого
+     * узла наследуется
+     *
+     * @return escrow аренды или null, если товара нет или аренда принадлежит другому узлу
+     */
+    @Transactional
+    public Integer acquire(UUID productId, String nodeId, long leaseSeconds) {
+        if (jdbcTemplate.queryForList("SELECT id FROM products WHERE id = ? FOR UPDATE", UUID.class, productId)
+                .isEmpty()) {
+            return null;
+        }
+        List<Integer> escrow = jdbcTemplate.queryForList("INSERT INTO stock_leases " +
+                        "(product_id, node_id, escrow, expires_at) " +
+                        "VALUES (?, ?, 0, now() + make_interval(secs => ?)) " +
+                        "ON CONFLICT (product_id) DO UPDATE " +
+                        "SET node_id = EXCLUDED.node_id, expires_at = EXCLUDED.expires_at " +
+                        "WHERE stock_leases.node_id = EXCLUDED.node_id OR stock_leases.expires_at < now() " +
+                        "RETURNING escrow",
+                Integer.class, productId, nodeId, leaseSeconds);
+        if (escrow.isEmpty()) {
+            return null;
+        }
+        Integer checkedOut = jdbcTemplate.queryForObject("UPDATE products p SET available_stock = 0 " +
+                "FROM (SELECT id, available_stock FROM products WHERE id = ?) old " +
+                "WHERE p.id = old.id RETURNING old.available_stock", Integer.class, productId);
+        int total = escrow.get(0) + checkedOut;
+        jdbcTemplate.update("UPDATE stock_leases SET escrow = ? WHERE product_id = ?", total, productId);
+        return total;
+    }
+
+    /**
+     * Метод записывает текущие остатки узла в escrow, продлевает аренды и забирает в escrow остаток, появившийся
+     * в products.available_stock (например, после пополнения склада). Записывается абсолютное значение,
+     * поэтому повтор после сбоя ничего не портит
+     *
+     * @param remaining - остаток в памяти узла по идентификатору товара
+     * @return пополнение по идентификатору товара для товаров, аренда которых все еще принадлежит узлу
+     */
+    @Transactional
+    public Map<UUID, Integer> flush(Map<UUID, Integer> remaining, String nodeId, long leaseSeconds) {
+        jdbcTemplate.query("SELECT id FROM products WHERE id = ANY (?) ORDER BY id FOR UPDATE",
+                uuidArray(remaining.keySet()), rs -> {
+                });
+        List<Map.Entry<UUID, Integer>> entries = List.copyOf(remaining.entrySet());
+        int[][] counts = jdbcTemplate.batchUpdate("UPDATE stock_leases " +
+                        "SET escrow = ?, expires_at = now() + make_interval(secs => ?) " +
+                        "WHERE product_id = ? AND node_id = ?",
+                entries, entries.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setLong(2, leaseSeconds);
+                    ps.setObject(3, entry.getKey());
+                    ps.setString(4, nodeId);
+                });
+        Map<UUID, Integer> restocked = new HashMap<>();
+        int i = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count > 0) {
+                    restocked.put(entries.get(i).getKey(), 0);
+                }
+                i++;
+            }
+        }
+        if (restocked.isEmpty()) {
+            return restocked;
+        }
+        jdbcTemplate.query("UPDATE products p SET available_stock = 0 " +
+                        "FROM (SELECT id, available_stock FROM products " +
+                        "WHERE id = ANY (?) AND available_stock > 0) old " +
+                        "WHERE p.id = old.id RETURNING p.id, old.available_stock",
+                uuidArray(restocked.keySet()), rs -> {
+                    restocked.put(rs.getObject("id", UUID.class), rs.getInt("available_stock"));
+                });
+        jdbcTemplate.batchUpdate("UPDATE stock_leases SET escrow = escrow + ? WHERE product_id = ?",
+                List.copyOf(restocked.entrySet()), restocked.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setObject(2, entry.getKey());
+                });
+        return restocked;
+    }
+
+    /**
+     * Метод записывает текущие остатки узла в escrow без блокировки строк products: аренду не продлевает
+     * и пополнение не забирает (см. flush). Записывается абсолютное значение, поэтому порядок записей
+     * должен совпадать с порядком чтения остатков
+     *
+     * @param remaining - остаток в памяти узла по идентификатору товара
+     * @return товары, аренда которых все еще принадлежит узлу
+     */
+    public Set<UUID> updateEscrow(Map<UUID, Integer> remaining, String nodeId) {
+        List<Map.Entry<UUID, Integer>> entries = List.copyOf(remaining.entrySet());
+        int[][] counts = jdbcTemplate.batchUpdate("UPDATE stock_leases SET escrow = ? " +
+                        "WHERE product_id = ? AND node_id = ?",
+                entries, entries.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setObject(2, entry.getKey());
+                    ps.setString(3, nodeId);
+                });
+        Set<UUID> owned = new HashSet<>();
+        int i = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                if (count > 0) {
+                    owned.add(entries.get(i).getKey());
+                }
+                i++;
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Метод снимает аренду узла и возвращает остаток в products.available_stock
+     */
+    public int release(UUID productId, String nodeId, int remaining) {
+        return jdbcTemplate.update("WITH locked AS (SELECT id FROM products WHERE id = ? FOR UPDATE), " +
+                "lease AS (DELETE FROM stock_leases " +
+                "WHERE product_id IN (SELECT id FROM locked) AND node_id = ? RETURNING product_id) " +
+                "UPDATE products SET available_stock = available_stock + ? " +
+                "WHERE id IN (SELECT product_id FROM lease)", productId, nodeId, remaining);
+    }
+
+    /**
+     * Метод снимает аренду товара вместе с escrow, например когда полный остаток задан заново через
+     * products.available_stock. Строка товара должна быть уже заблокирована. Владелец аренды узнает об этом
+     * при следующей записи escrow и берет аренду заново уже с новым остатком
+     */
+    public int delete(UUID productId) {
+        return jdbcTemplate.update("DELETE FROM stock_leases WHERE product_id = ?", productId);
+    }
+
+    /**
+     * Метод возвращает в products.available_stock escrow истекших аренд товаров, которые больше не горячие
+     */
+    public int releaseExpired(Collection<UUID> hotProductIds) {
+        return jdbcTemplate.update("WITH locked AS (SELECT p.id FROM products p " +
+                        "JOIN stock_leases l ON l.product_id = p.id " +
+                        "WHERE l.expires_at < now() AND NOT l.product_id = ANY (?) ORDER BY p.id FOR UPDATE OF p), " +
+                        "lease AS (DELETE FROM stock_leases " +
+                        "WHERE product_id IN (SELECT id FROM locked) AND expires_at < now() " +
+                        "RETURNING product_id, escrow) " +
+                        "UPDATE products p SET available_stock = p.available_stock + lease.escrow " +
+                        "FROM lease WHERE p.id = lease.product_id",
+                uuidArray(hotProductIds));
+    }
+
+    /**
+     * @return escrow аренд указанных товаров
+     */
+    public Map<UUID, Integer> findEscrow(Collection<UUID> productIds) {
+        Map<UUID, Integer> escrow = new HashMap<>();
+        jdbcTemplate.query("SELECT product_id, escrow FROM stock_leases WHERE product_id = ANY (?)",
+                uuidArray(productIds), rs -> {
+                    escrow.put(rs.getObject("product_id", UUID.class), rs.getInt("escrow"));
+                });
+        return escrow;
+    }
+
+    private static PreparedStatementSetter uuidArray(Collection<UUID> ids) {
+        return ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids.toArray()));
+    }
+}
@@ -0,0 +1,65 @@
+package edu.school21.repositories;
+
+import edu.school21.models.ReservationLine;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@Repository
+public class StockReductionRepository {
+    private JdbcTemplate jdbcTemplate;
+
+    public StockReductionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Метод списывает пачку запросов, сумма которых не прошла условный UPDATE (см. StockReductionService),
+     * одной транзакцией: строки товаров с остатком блокируются в порядке id,
+     * запросы удовлетворяются по очереди, пока хватает остатка, а новые остатки записываются одним пакетом.
+     * Товары без остатка в строке (в том числе разложенные по слотам) не блокируются
+     *
+     * @param lines - запросы на списание в порядке поступления, товар может повторяться
+     * @return признак списания для каждого запроса
+     */
+    @Transactional
+    public boolean[] reduceAll(List<ReservationLine> lines) {
+        Map<UUID, Integer> stock = new HashMap<>();
+        jdbcTemplate.query("SELECT id, available_stock FROM products " +
+                        "WHERE id = ANY (?) AND available_stock > 0 ORDER BY id FOR UPDATE",
+                uuidArray(lines.stream().map(ReservationLine::productId).distinct().toList()), rs -> {
+                    stock.put(rs.getObject("id", UUID.class), rs.getInt("available_stock"));
+                });
+        Map<UUID, Integer> remaining = new HashMap<>(stock);
+        boolean[] granted = new boolean[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            ReservationLine line = lines.get(i);
+            Integer available = remaining.get(line.productId());
+            if (available != null && available >= line.amount()) {
+                remaining.put(line.productId(), available - line.amount());
+                granted[i] = true;
+            }
+        }
+        List<Map.Entry<UUID, Integer>> changed = remaining.entrySet().stream()
+                .filter(entry -> !entry.getValue().equals(stock.get(entry.getKey())))
+                .toList();
+        jdbcTemplate.batchUpdate("UPDATE products SET available_stock = ?, last_update_date = now()::TIMESTAMP(2) " +
+                        "WHERE id = ?",
+                changed, changed.size(), (ps, entry) -> {
+                    ps.setInt(1, entry.getValue());
+                    ps.setObject(2, entry.getKey());
+                });
+        return granted;
+    }
+
+    private static PreparedStatementSetter uuidArray(Collection<UUID> ids) {
+        return ps -> ps.setArray(1, ps.getConnection().createArrayOf("uuid", ids.toArray()));
+    }
+}
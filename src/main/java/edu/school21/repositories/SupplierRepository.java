@@ -1,11 +1,21 @@
 package edu.school21.repositories;
 
 import edu.school21.models.Supplier;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.UUID;
 
 @Repository
 public interface SupplierRepository extends JpaRepository<Supplier, UUID> {
+    Slice<Supplier> findAllByOrderByNameAscIdAsc(Pageable pageable);
+
+    /**
+     * Следующая страница после пары (name, id) читается по индексу suppliers_name_id_idx без OFFSET и COUNT
+     */
+    @Query(value = "SELECT * FROM suppliers WHERE (name, id) > (:name, :id) ORDER BY name, id", nativeQuery = true)
+    Slice<Supplier> findAllAfter(String name, UUID id, Pageable pageable);
 }
@@ -1,11 +1,14 @@
 package edu.school21.services;
 
 import edu.school21.models.Client;
+import edu.school21.models.PageCursor;
 import edu.school21.repositories.ClientRepository;
 import edu.school21.utils.PatchMappingUtils;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -59,6 +62,17 @@ public class ClientService {
         return clientRepository.findAll(pageable);
     }
 
+    /**
+     * @param cursor - позиция после последней записи предыдущей страницы, null - первая страница
+     * @param limit  - размер страницы
+     */
+    public Slice<Client> findAll(PageCursor cursor, int limit) {
+        if (cursor == null) {
+            return clientRepository.findAllByOrderBySurnameAscIdAsc(PageRequest.of(0, limit));
+        }
+        return clientRepository.findAllAfter(cursor.key(), cursor.id(), PageRequest.of(0, limit));
+    }
+
     public List<Client> findAll() {
         return clientRepository.findAll();
     }
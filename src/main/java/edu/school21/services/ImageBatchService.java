@@ -0,0 +1,86 @@
+package edu.school21.services;
+
+import edu.school21.dto.MessageDto;
+import edu.school21.exceptions.ImageContentRemovedException;
+import edu.school21.models.EncodedImage;
+import edu.school21.repositories.ImageBlobRepository;
+import edu.school21.utils.ImageUtils;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Пакетная загрузка изображений. Хеширование и сжатие выполняются параллельно в отдельном ForkJoinPool
+ * вне транзакции, а запись в базу идет одной транзакцией пакетными запросами
+ */
+@Service
+public class ImageBatchService {
+    private static final int MAX_ATTEMPTS = 3;
+    private ImageService imageService;
+    private ImageUtils imageUtils;
+    private ImageBlobRepository imageBlobRepository;
+    private ForkJoinPool pool;
+
+    public ImageBatchService(ImageService imageService,
+                             ImageUtils imageUtils,
+                             ImageBlobRepository imageBlobRepository,
+                             @Value("${images.batch.parallelism}") int parallelism) {
+        this.imageService = imageService;
+        this.imageUtils = imageUtils;
+        this.imageBlobRepository = imageBlobRepository;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Наличие содержимого в базе проверяется до транзакции, поэтому между проверкой и записью его может
+     * удалить другой запрос. Тогда запись откатывается, и пачка готовится заново по свежему списку
+     * существующих хешей. Обратный случай, когда содержимое появилось после проверки, обрабатывает
+     * ON CONFLICT в ImageBatchRepository.insertOrIncrementRefCounts
+     *
+     * @param contents - исходные данные изображений
+     * @return сообщения с идентификаторами изображений в порядке загрузки
+     */
+    public List<MessageDto> saveImages(List<byte[]> contents) {
+        List<String> hashes = pool.submit(() -> contents.parallelStream()
+                        .map(imageUtils::hash)
+                        .toList())
+                .join();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return imageService.saveEncodedImages(hashes, encodeCreated(contents, hashes));
+            } catch (ImageContentRemovedException e) {
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Map<String, EncodedImage> encodeCreated(List<byte[]> contents, List<String> hashes) {
+        Set<String> existing = new HashSet<>(imageBlobRepository.findExistingHashes(new HashSet<>(hashes)));
+        // одинаковые файлы в пачке кодируются один раз
+        Map<String, byte[]> created = IntStream.range(0, contents.size())
+                .filter(i -> !existing.contains(hashes.get(i)))
+                .boxed()
+                .collect(Collectors.toMap(hashes::get, contents::get, (first, second) -> first, LinkedHashMap::new));
+        return pool.submit(() -> created.entrySet().parallelStream()
+                        .map(entry -> imageService.encode(entry.getKey(), entry.getValue()))
+                        .collect(Collectors.toMap(EncodedImage::hash, Function.identity())))
+                .join();
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdown();
+    }
+}
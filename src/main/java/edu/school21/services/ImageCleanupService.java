@@ -0,0 +1,47 @@
+package edu.school21.services;
+
+import edu.school21.models.ImageCleanupResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Фоновое удаление изображений, на которые не ссылается ни один товар. Изображения удаляются небольшими пачками,
+ * каждая в своей транзакции, поэтому блокировки держатся недолго, а количество пачек за запуск ограничено
+ */
+@Slf4j
+@Service
+public class ImageCleanupService {
+    private ImageService imageService;
+    private int batchSize;
+    private int maxBatches;
+    private long gracePeriodSeconds;
+
+    public ImageCleanupService(ImageService imageService,
+                               @Value("${images.cleanup.batch-size}") int batchSize,
+                               @Value("${images.cleanup.max-batches}") int maxBatches,
+                               @Value("${images.cleanup.grace-period-seconds}") long gracePeriodSeconds) {
+        this.imageService = imageService;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.gracePeriodSeconds = gracePeriodSeconds;
+    }
+
+    @Scheduled(cron = "${scheduler.images.cleanup.cron}", zone = "Europe/Moscow")
+    public void cleanOrphanedImages() {
+        int deleted = 0;
+        long reclaimed = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            ImageCleanupResult result = imageService.deleteOrphanedImages(gracePeriodSeconds, batchSize);
+            deleted += result.deleted();
+            reclaimed += result.reclaimedBytes();
+            if (result.deleted() < batchSize) {
+                break;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} orphaned images, reclaimed {} bytes", deleted, reclaimed);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package edu.school21.services;
+
+import edu.school21.repositories.ImageBlobRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+
+/**
+ * Фоновое пересжатие изображений, сохраненных при загрузке быстрым кодеком. Записи обрабатываются пачками,
+ * количество пачек за запуск зависит от длины очереди, а перед каждой пачкой проверяется загрузка CPU.
+ * Каждый запуск сначала удаляет из хранилища копии, замененные пересжатием больше
+ * images.storage.retired-grace-period-seconds назад: пересжатие их создает, поэтому и удаляет.
+ * При запуске приложения здесь же распаковываются изображения, перенесенные из старой схемы
+ */
+@Slf4j
+@Service
+public class ImageRecompressionService {
+    private ImageService imageService;
+    private ImageBlobRepository imageBlobRepository;
+    private OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    private int batchSize;
+    private int maxBatches;
+    private double maxLoad;
+    private long retiredGracePeriodSeconds;
+
+    public ImageRecompressionService(ImageService imageService,
+                                     ImageBlobRepository imageBlobRepository,
+                                     @Value("${images.recompression.batch-size}") int batchSize,
+                                     @Value("${images.recompression.max-batches}") int maxBatches,
+                                     @Value("${images.recompression.max-load}") double maxLoad,
+                                     @Value("${images.storage.retired-grace-period-seconds}")
+                                     long retiredGracePeriodSeconds) {
+        this.imageService = imageService;
+        this.imageBlobRepository = imageBlobRepository;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.maxLoad = maxLoad;
+        this.retiredGracePeriodSeconds = retiredGracePeriodSeconds;
+    }
+
+    /**
+     * Перенесенные записи нельзя отдавать, пока не известен размер исходных данных, поэтому они обрабатываются
+     * до запуска сервера. Запись, перенос которой завершился ошибкой, остается и обрабатывается при следующем запуске
+     */
+    @PostConstruct
+    public void completeMigratedImages() {
+        List<String> hashes = imageBlobRepository.findMigrated();
+        for (String hash : hashes) {
+            try {
+                imageService.completeMigratedContent(hash);
+            } catch (RuntimeException e) {
+                log.warn("Migrated image content with hash: {} is not unpacked", hash, e);
+            }
+        }
+        if (!hashes.isEmpty()) {
+            log.info("Migrated image contents processed: {}", hashes.size());
+        }
+    }
+
+    @Scheduled(cron = "${scheduler.images.recompression.cron}", zone = "Europe/Moscow")
+    public void recompressPendingImages() {
+        deleteRetiredImages();
+        long queueDepth = imageBlobRepository.countPendingRecompression();
+        long batches = Math.min(maxBatches, (queueDepth + batchSize - 1) / batchSize);
+        for (long i = 0; i < batches && !isOverloaded(); i++) {
+            if (recompressBatch() == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Метод пересжимает одну пачку записей из очереди. Запись, пересжатие которой завершилось ошибкой,
+     * снимается с очереди: очередь читается в порядке хеша, и такая запись иначе открывала бы каждую пачку
+     *
+     * @return количество обработанных записей
+     */
+    public int recompressBatch() {
+        List<String> hashes = imageBlobRepository.findPendingRecompression(batchSize);
+        for (String hash : hashes) {
+            try {
+                imageService.recompressContent(hash);
+            } catch (RuntimeException e) {
+                log.warn("Image content with hash: {} is not recompressed", hash, e);
+                imageBlobRepository.completeRecompression(hash);
+            }
+        }
+        return hashes.size();
+    }
+
+    /**
+     * Метод удаляет старые копии пачками по batchSize, не больше maxBatches пачек за запуск
+     *
+     * @return количество снятых с очереди записей
+     */
+    public int deleteRetiredImages() {
+        int retired = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            int count = imageService.deleteRetiredContent(retiredGracePeriodSeconds, batchSize);
+            retired += count;
+            if (count < batchSize) {
+                break;
+            }
+        }
+        if (retired > 0) {
+            log.info("Processed {} image copies replaced by recompression", retired);
+        }
+        return retired;
+    }
+
+    /**
+     * Средняя загрузка системы на одно ядро. Если ОС ее не предоставляет (отрицательное значение),
+     * пересжатие не ограничивается
+     */
+    private boolean isOverloaded() {
+        double loadAverage = operatingSystem.getSystemLoadAverage();
+        return loadAverage >= 0 && loadAverage / operatingSystem.getAvailableProcessors() > maxLoad;
+    }
+}
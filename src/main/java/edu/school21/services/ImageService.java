@@ -1,59 +1,619 @@
 package edu.school21.services;
 
+import edu.school21.codecs.ImageCodec;
+import edu.school21.codecs.ImageCodecRegistry;
 import edu.school21.dto.MessageDto;
+import edu.school21.exceptions.ImageContentRemovedException;
+import edu.school21.models.EncodedImage;
 import edu.school21.models.Image;
+import edu.school21.models.ImageCleanupResult;
+import edu.school21.models.ImageBlob;
+import edu.school21.models.ImageMetadata;
+import edu.school21.models.RetiredImageData;
+import edu.school21.repositories.ImageBatchRepository;
+import edu.school21.repositories.ImageBlobRepository;
+import edu.school21.repositories.ImageMetadataRepository;
 import edu.school21.repositories.ImageRepository;
+import edu.school21.repositories.ImageRetiredDataRepository;
+import edu.school21.repositories.ImageVariantRepository;
+import edu.school21.storage.ImageFileCache;
+import edu.school21.storage.ImageStorage;
+import edu.school21.utils.DecompressedImageCache;
 import edu.school21.utils.ImageUtils;
 import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 
 @Service
 public class ImageService {
     private ImageUtils imageUtils;
+    private ImageCodecRegistry imageCodecRegistry;
     private ImageRepository imageRepository;
+    private ImageMetadataRepository imageMetadataRepository;
+    private ImageBlobRepository imageBlobRepository;
+    private ImageBatchRepository imageBatchRepository;
+    private ImageVariantRepository imageVariantRepository;
+    private ImageRetiredDataRepository imageRetiredDataRepository;
+    private ImageStorage imageStorage;
+    private DecompressedImageCache decompressedImageCache;
+    private ImageFileCache imageFileCache;
+    private TransactionTemplate transactionTemplate;
+    private double maxCompressionRatio;
+    private int[] variantSizes;
+    private long variantMaxPixels;
 
     public ImageService(ImageUtils imageUtils,
-                        ImageRepository imageRepository) {
+                        ImageCodecRegistry imageCodecRegistry,
+                        ImageRepository imageRepository,
+                        ImageMetadataRepository imageMetadataRepository,
+                        ImageBlobRepository imageBlobRepository,
+                        ImageBatchRepository imageBatchRepository,
+                        ImageVariantRepository imageVariantRepository,
+                        ImageRetiredDataRepository imageRetiredDataRepository,
+                        ImageStorage imageStorage,
+                        DecompressedImageCache decompressedImageCache,
+                        ImageFileCache imageFileCache,
+                        TransactionTemplate transactionTemplate,
+                        @Value("${images.compression.max-ratio}") double maxCompressionRatio,
+                        @Value("${images.variants.sizes}") List<Integer> variantSizes,
+                        @Value("${images.variants.max-pixels}") long variantMaxPixels) {
         this.imageUtils = imageUtils;
+        this.imageCodecRegistry = imageCodecRegistry;
         this.imageRepository = imageRepository;
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageBatchRepository = imageBatchRepository;
+        this.imageVariantRepository = imageVariantRepository;
+        this.imageRetiredDataRepository = imageRetiredDataRepository;
+        this.imageStorage = imageStorage;
+        this.decompressedImageCache = decompressedImageCache;
+        this.imageFileCache = imageFileCache;
+        this.transactionTemplate = transactionTemplate;
+        this.maxCompressionRatio = maxCompressionRatio;
+        this.variantSizes = variantSizes.stream()
+                .mapToInt(Integer::intValue)
+                .sorted()
+                .toArray();
+        this.variantMaxPixels = variantMaxPixels;
     }
 
     public Image findById(UUID id) {
-        Image image = imageRepository.findById(id)
+        return imageRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException(
                         "Image with id: %s not found".formatted(id)));
-        image.setImage(imageUtils.decompressImage(image.getImage()));
-        return image;
     }
 
+    /**
+     * Метод возвращает сведения об изображении и его содержимом одним запросом без чтения самих данных
+     *
+     * @param id - идентификатор изображения
+     * @return ImageMetadata с хешем, размерами, кодеком и типом содержимого
+     */
+    public ImageMetadata findMetadataById(UUID id) {
+        return imageMetadataRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Image with id: %s not found".formatted(id)));
+    }
+
+    /**
+     * Метод возвращает сведения о сохраненном содержимом изображения без чтения самих данных
+     *
+     * @param hash - хеш содержимого изображения
+     * @return ImageBlob с исходным и сохраненным размером
+     */
+    public ImageBlob findContent(String hash) {
+        return imageBlobRepository.findById(hash)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Image content with hash: %s not found".formatted(hash)));
+    }
+
+    /**
+     * Метод открывает поток части сохраненного (сжатого) изображения, данные читаются из базы порциями
+     *
+     * @param content - сведения об изображении
+     * @param offset  - смещение первого байта в сохраненных данных
+     * @param length  - количество читаемых байт
+     * @return InputStream сжатого изображения
+     */
+    public InputStream openStoredStream(ImageMetadata content, long offset, long length) {
+        return imageStorage.open(content.getHash(), content.getCodec(), offset, length);
+    }
+
+    /**
+     * @param content - сведения об изображении
+     * @return путь к файлу с сохраненными данными, если хранилище держит их в локальной файловой системе
+     */
+    public Optional<Path> findStoredFile(ImageMetadata content) {
+        return imageStorage.findFile(content.getHash(), content.getCodec());
+    }
+
+    /**
+     * Метод открывает поток распакованного изображения. Изображения, которые помещаются в DecompressedImageCache,
+     * распаковываются целиком один раз и дальше отдаются из кэша. Большие изображения читаются из хранилища
+     * порциями и распаковываются кодеком, указанным в записи, по мере чтения, поэтому целиком в памяти не хранятся
+     *
+     * @param content - сведения об изображении
+     * @return InputStream распакованного изображения
+     */
+    public InputStream openImageStream(ImageMetadata content) {
+        InputStream cached = decompressedImageCache.open(content.getHash());
+        if (cached != null) {
+            return cached;
+        }
+        InputStream image = openImageStream(content.getHash(), content.getCodec(), content.getStoredLength());
+        if (!decompressedImageCache.isCacheable(content.getSize())) {
+            return image;
+        }
+        byte[] data;
+        try (image) {
+            data = image.readNBytes(Math.toIntExact(content.getSize()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // неполные данные (содержимое удалено во время чтения) в кэш не попадают
+        if (data.length == content.getSize()) {
+            decompressedImageCache.put(content.getHash(), data);
+        }
+        return new ByteArrayInputStream(data);
+    }
+
+    /**
+     * Метод открывает поток распакованного изображения для отдачи его части. Изображение из DecompressedImageCache
+     * отдается из кэша, а при промахе, в отличие от openImageStream(ImageMetadata), не распаковывается целиком
+     * для кэширования: данные распаковываются по мере чтения, поэтому распаковывается только префикс
+     * до конца запрошенного диапазона
+     *
+     * @param content - сведения об изображении
+     * @return InputStream распакованного изображения
+     */
+    public InputStream openImagePrefixStream(ImageMetadata content) {
+        InputStream cached = decompressedImageCache.open(content.getHash());
+        if (cached != null) {
+            return cached;
+        }
+        return openImageStream(content.getHash(), content.getCodec(), content.getStoredLength());
+    }
+
+    /**
+     * Метод возвращает копию изображения, уменьшенную до указанных размеров с сохранением пропорций.
+     * Размеры округляются вверх до ближайшего из images.variants.sizes, поэтому у изображения не больше
+     * чем по копии на пару размеров из списка. Копия создается при первом запросе и сохраняется как обычное
+     * содержимое изображения, поэтому повторные запросы тех же размеров только читают ее. Уменьшение выполняется
+     * до начала транзакции, в транзакции копия только сохраняется. Если изображение уже помещается в размеры,
+     * больше images.variants.max-pixels или его формат не поддерживается, возвращается исходное изображение
+     *
+     * @param image  - сведения об исходном изображении
+     * @param width  - максимальная ширина или null
+     * @param height - максимальная высота или null
+     * @return ImageMetadata копии с идентификатором исходного изображения
+     */
+    public ImageMetadata findVariant(ImageMetadata image, Integer width, Integer height) {
+        if (width == null && height == null) {
+            return image;
+        }
+        int maxWidth = toVariantSize(width);
+        int maxHeight = toVariantSize(height);
+        String variantHash = imageVariantRepository.findVariantHash(image.getHash(), maxWidth, maxHeight)
+                .orElse(null);
+        if (variantHash == null) {
+            byte[] resized;
+            try (InputStream original = openImageStream(image)) {
+                resized = imageUtils.resize(original, image.getMediaType(), maxWidth, maxHeight, variantMaxPixels);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (resized == null) {
+                return image;
+            }
+            variantHash = transactionTemplate.execute(status -> {
+                String hash = storeContent(resized);
+                if (!imageVariantRepository.insert(image.getHash(), maxWidth, maxHeight, hash)) {
+                    releaseContent(hash);
+                }
+                return hash;
+            });
+        }
+        ImageBlob variant = findContent(variantHash);
+        return new ImageMetadata(image.getId(), variant.getHash(), variant.getSize(), variant.getStoredLength(),
+                variant.getCodec(), variant.getMediaType());
+    }
+
+    @Transactional
     public MessageDto saveImage(Image image) {
-        image.setImage(imageUtils.compressImage(image.getImage()));
+        image.setHash(storeContent(image.getImage()));
+        imageRepository.save(image);
+        return new MessageDto(image.getId(), "Image saved successfully");
+    }
+
+    /**
+     * Метод сохраняет изображение из файла, не загружая его целиком в кучу: хеш считается потоком, данные
+     * сжимаются потоком во временный файл рядом с исходным и передаются в хранилище из файла
+     *
+     * @param file - файл с исходными данными изображения
+     * @return сообщение с идентификатором изображения
+     */
+    @Transactional
+    public MessageDto saveImage(Path file) {
+        Image image = new Image();
+        try {
+            String hash = imageUtils.hash(file);
+            if (imageBlobRepository.incrementRefCount(hash) == 0) {
+                storeContent(hash, file);
+            }
+            image.setHash(hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         imageRepository.save(image);
         return new MessageDto(image.getId(), "Image saved successfully");
     }
 
+    @Transactional
     public MessageDto putUpdateImage(Image image) {
         try {
-            existsById(image.getId());
-            image.setImage(imageUtils.compressImage(image.getImage()));
-            imageRepository.save(image);
-            return new MessageDto(image.getId(), "Image updated successfully");
+            Image existingImage = findById(image.getId());
+            String previousHash = existingImage.getHash();
+            existingImage.setHash(storeContent(image.getImage()));
+            imageRepository.save(existingImage);
+            releaseContent(previousHash);
+            return new MessageDto(existingImage.getId(), "Image updated successfully");
         } catch (EntityNotFoundException e) {
             image.setId(null);
             return saveImage(image);
         }
     }
 
+    @Transactional
     public void deleteById(UUID id) {
-        existsById(id);
-        imageRepository.deleteById(id);
+        Image image = findById(id);
+        imageRepository.deleteImageById(id);
+        releaseContent(image.getHash());
+    }
+
+    /**
+     * Метод удаляет пачку изображений, на которые не ссылается ни один товар, например загруженных
+     * перед неудачным созданием товара или замененных при изменении товара
+     *
+     * @param gracePeriodSeconds - минимальный возраст удаляемого изображения, чтобы не затронуть только что
+     *                           загруженные изображения, товар для которых еще создается
+     * @param limit              - максимальное количество удаляемых изображений
+     * @return количество удаленных изображений и освобожденных байт
+     */
+    @Transactional
+    public ImageCleanupResult deleteOrphanedImages(long gracePeriodSeconds, int limit) {
+        List<UUID> ids = imageRepository.findOrphanedImageIds(gracePeriodSeconds, limit);
+        long reclaimed = 0;
+        for (UUID id : ids) {
+            Image image = findById(id);
+            imageRepository.deleteImageById(id);
+            reclaimed += releaseContent(image.getHash());
+        }
+        return new ImageCleanupResult(ids.size(), reclaimed);
     }
 
-    private void existsById(UUID id) {
-        if (!imageRepository.existsById(id)) {
-            throw new EntityNotFoundException("Image with id: %s not found".formatted(id));
+    /**
+     * Метод сохраняет содержимое изображения по его хешу. Если такое содержимое уже хранится,
+     * увеличивается только счетчик ссылок и повторное сжатие не выполняется.
+     * Чтобы не задерживать запрос, данные сжимаются быстрым кодеком images.codec.upload и помечаются
+     * для фонового пересжатия кодеком images.codec.default (см. recompressContent). Уже сжатые форматы
+     * (JPEG, PNG, WebP и т.д.) и данные, которые кодек сжимает хуже maxCompressionRatio, сохраняются без сжатия
+     *
+     * @param content - исходные данные изображения
+     * @return хеш содержимого
+     */
+    private String storeContent(byte[] content) {
+        String hash = imageUtils.hash(content);
+        if (imageBlobRepository.incrementRefCount(hash) > 0) {
+            return hash;
+        }
+        EncodedImage encoded = encode(hash, content);
+        writeStored(hash, encoded.codec(), encoded.data());
+        imageBlobRepository.insertOrIncrementRefCount(hash, encoded.size(), encoded.data().length, encoded.codec(),
+                encoded.mediaType(), encoded.recompress());
+        return hash;
+    }
+
+    /**
+     * Метод сохраняет содержимое изображения из файла так же, как storeContent(byte[]). Сжатые данные пишутся
+     * во временный файл, и в хранилище передается меньший из двух файлов
+     *
+     * @param hash - хеш исходных данных
+     * @param file - файл с исходными данными изображения
+     */
+    private void storeContent(String hash, Path file) throws IOException {
+        long size = Files.size(file);
+        String mediaType = imageUtils.detectMediaType(file);
+        ImageCodec codec = imageCodecRegistry.getIdentity();
+        boolean recompress = false;
+        Path encoded = null;
+        try {
+            if (!imageUtils.isCompressedFormat(mediaType)) {
+                ImageCodec uploadCodec = imageCodecRegistry.getUpload();
+                if (!uploadCodec.isIdentity()) {
+                    encoded = Files.createTempFile(file.getParent(), file.getFileName().toString(),
+                            "." + uploadCodec.getId());
+                    try (OutputStream out = uploadCodec.encode(Files.newOutputStream(encoded))) {
+                        Files.copy(file, out);
+                    }
+                    if (Files.size(encoded) <= size * maxCompressionRatio) {
+                        codec = uploadCodec;
+                    }
+                }
+                recompress = uploadCodec != imageCodecRegistry.getDefault();
+            }
+            Path stored = codec.isIdentity() ? file : encoded;
+            writeStored(hash, codec.getId(), stored);
+            imageBlobRepository.insertOrIncrementRefCount(hash, size, Files.size(stored), codec.getId(), mediaType,
+                    recompress);
+        } finally {
+            if (encoded != null) {
+                Files.deleteIfExists(encoded);
+            }
         }
     }
+
+    /**
+     * Метод определяет формат изображения и кодирует его для хранения (см. storeContent). Не обращается к базе,
+     * поэтому может выполняться параллельно для нескольких изображений
+     *
+     * @param hash    - хеш исходных данных
+     * @param content - исходные данные изображения
+     * @return подготовленное к записи содержимое
+     */
+    public EncodedImage encode(String hash, byte[] content) {
+        String mediaType = imageUtils.detectMediaType(content);
+        ImageCodec codec = imageCodecRegistry.getIdentity();
+        byte[] stored = content;
+        boolean recompress = false;
+        if (!imageUtils.isCompressedFormat(mediaType)) {
+            ImageCodec uploadCodec = imageCodecRegistry.getUpload();
+            if (!uploadCodec.isIdentity()) {
+                byte[] compressed = uploadCodec.encode(content);
+                if (compressed.length <= content.length * maxCompressionRatio) {
+                    codec = uploadCodec;
+                    stored = compressed;
+                }
+            }
+            recompress = uploadCodec != imageCodecRegistry.getDefault();
+        }
+        return new EncodedImage(hash, mediaType, content.length, codec.getId(), stored, recompress);
+    }
+
+    /**
+     * Метод сохраняет пачку изображений в одной транзакции пакетными запросами. Содержимое, которое уже
+     * хранится в базе, только получает новые ссылки. Повторы одного хеша в пачке схлопываются в одну строку
+     * запроса с количеством ссылок.
+     * Если новое содержимое успела сохранить параллельная загрузка, ON CONFLICT добавляет к ее строке
+     * ссылки этой пачки. Если содержимое, найденное до транзакции, успели удалить, транзакция откатывается
+     * с ImageContentRemovedException, и пачку нужно подготовить заново
+     *
+     * @param hashes  - хеши изображений в порядке загрузки
+     * @param encoded - подготовленное содержимое, которого еще нет в базе, по хешу
+     * @return сообщения с идентификаторами изображений в порядке загрузки
+     */
+    @Transactional
+    public List<MessageDto> saveEncodedImages(List<String> hashes, Map<String, EncodedImage> encoded) {
+        Map<String, Integer> refCounts = new LinkedHashMap<>();
+        hashes.forEach(hash -> refCounts.merge(hash, 1, Integer::sum));
+        Map<String, Integer> existing = new LinkedHashMap<>(refCounts);
+        existing.keySet().removeAll(encoded.keySet());
+        if (!encoded.isEmpty()) {
+            List<EncodedImage> created = List.copyOf(encoded.values());
+            imageStorage.writeAll(created);
+            created.forEach(image -> retireOnRollback(image.hash(), image.codec()));
+            imageBatchRepository.insertOrIncrementRefCounts(created, refCounts);
+        }
+        if (!existing.isEmpty()) {
+            List<String> removed = imageBatchRepository.incrementRefCounts(existing);
+            if (!removed.isEmpty()) {
+                throw new ImageContentRemovedException("Image content removed during upload: %s".formatted(removed));
+            }
+        }
+        List<UUID> ids = hashes.stream()
+                .map(hash -> UUID.randomUUID())
+                .toList();
+        imageBatchRepository.insertImages(ids, hashes);
+        return ids.stream()
+                .map(id -> new MessageDto(id, "Image saved successfully"))
+                .toList();
+    }
+
+    /**
+     * Метод пересжимает содержимое, сохраненное при загрузке быстрым кодеком, кодеком по умолчанию.
+     * Новые данные сохраняются, только если они меньше текущих и укладываются в maxCompressionRatio,
+     * иначе запись просто снимается с очереди пересжатия. Новые данные записываются в хранилище рядом со старыми,
+     * а после переключения метаданных старые данные ставятся в очередь отложенного удаления: загрузка, которая
+     * уже прочитала старый кодек и отправила Content-Length, дочитывает старую копию (см. deleteRetiredContent).
+     * Хеш считается от исходных данных, поэтому ETag и ссылки на содержимое не меняются. Если прочитанные данные
+     * не совпадают с хешем по длине или содержимому, пересжатие завершается IllegalStateException
+     *
+     * @param hash - хеш содержимого
+     */
+    @Transactional
+    public void recompressContent(String hash) {
+        ImageBlob content = imageBlobRepository.findById(hash).orElse(null);
+        if (content == null) {
+            return;
+        }
+        ImageCodec defaultCodec = imageCodecRegistry.getDefault();
+        if (!defaultCodec.isIdentity() && !defaultCodec.getId().equals(content.getCodec())) {
+            byte[] original;
+            try (InputStream image = openImageStream(hash, content.getCodec(), content.getStoredLength())) {
+                original = image.readNBytes(Math.toIntExact(content.getSize()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // неполные или поврежденные данные не должны заменить содержимое под тем же хешем и ETag
+            if (original.length != content.getSize() || !imageUtils.hash(original).equals(hash)) {
+                throw new IllegalStateException(("Image content with hash: %s read %d of %d bytes " +
+                        "or does not match its hash").formatted(hash, original.length, content.getSize()));
+            }
+            byte[] compressed = defaultCodec.encode(original);
+            if (compressed.length < content.getStoredLength()
+                    && compressed.length <= content.getSize() * maxCompressionRatio) {
+                writeStored(hash, defaultCodec.getId(), compressed);
+                // если запись изменилась с момента чтения, лишней может оказаться новая копия, но на нее
+                // уже может ссылаться параллельное пересжатие, поэтому она тоже удаляется только через очередь
+                String retiredCodec = imageBlobRepository.updateRecompressed(hash, defaultCodec.getId(),
+                        compressed.length, content.getCodec()) > 0 ? content.getCodec() : defaultCodec.getId();
+                imageRetiredDataRepository.retire(hash, retiredCodec);
+                return;
+            }
+        }
+        imageBlobRepository.completeRecompression(hash);
+    }
+
+    /**
+     * Метод завершает перенос содержимого из старой схемы (см. schema.sql): данные распаковываются и сохраняются
+     * как при загрузке под хешем исходных данных, ссылки images переводятся на эту запись, а перенесенная запись
+     * удаляется. Строка блокируется, поэтому запуск на другом узле дожидается коммита и пропускает ее
+     *
+     * @param hash - хеш сжатых данных перенесенной записи
+     */
+    @Transactional
+    public void completeMigratedContent(String hash) {
+        ImageBlob content = imageBlobRepository.findByIdForUpdate(hash).orElse(null);
+        if (content == null || content.getSize() >= 0) {
+            return;
+        }
+        byte[] original;
+        try (InputStream image = openImageStream(hash, content.getCodec(), content.getStoredLength())) {
+            original = image.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String originalHash = imageUtils.hash(original);
+        Map<String, Integer> refCounts = Map.of(originalHash, content.getRefCount());
+        if (!imageBatchRepository.incrementRefCounts(refCounts).isEmpty()) {
+            EncodedImage encoded = encode(originalHash, original);
+            writeStored(originalHash, encoded.codec(), encoded.data());
+            imageBatchRepository.insertOrIncrementRefCounts(List.of(encoded), refCounts);
+        }
+        imageRepository.replaceHash(hash, originalHash);
+        imageBlobRepository.deleteMigrated(hash);
+        afterCommit(() -> imageStorage.delete(hash, content.getCodec()));
+    }
+
+    /**
+     * Метод удаляет из хранилища пачку данных, замененных пересжатием больше gracePeriodSeconds назад.
+     * Данные, на которые image_blobs снова ссылается, только снимаются с очереди
+     *
+     * @param gracePeriodSeconds - срок, за который начатые загрузки успевают дочитать старую копию
+     * @param limit              - максимальное количество записей очереди
+     * @return количество снятых с очереди записей
+     */
+    @Transactional
+    public int deleteRetiredContent(long gracePeriodSeconds, int limit) {
+        List<RetiredImageData> retired = imageRetiredDataRepository.deleteRetired(gracePeriodSeconds, limit);
+        List<RetiredImageData> unreferenced = retired.stream()
+                .filter(data -> !data.referenced())
+                .toList();
+        afterCommit(() -> unreferenced.forEach(data -> imageStorage.delete(data.hash(), data.codec())));
+        return retired.size();
+    }
+
+    /**
+     * @return ближайший не меньший размер из images.variants.sizes, наибольший для больших размеров,
+     * 0 - без ограничения
+     */
+    private int toVariantSize(Integer size) {
+        if (size == null) {
+            return 0;
+        }
+        for (int variantSize : variantSizes) {
+            if (variantSize >= size) {
+                return variantSize;
+            }
+        }
+        return variantSizes[variantSizes.length - 1];
+    }
+
+    private InputStream openImageStream(String hash, String codec, long storedLength) {
+        InputStream stored = imageStorage.open(hash, codec, 0, storedLength);
+        return imageCodecRegistry.get(codec).decode(stored);
+    }
+
+    /**
+     * Метод уменьшает счетчик ссылок на содержимое и удаляет его, когда ссылок не осталось,
+     * вместе с уменьшенными копиями
+     *
+     * @param hash - хеш содержимого
+     * @return количество освобожденных байт сохраненных данных
+     */
+    private long releaseContent(String hash) {
+        imageBlobRepository.decrementRefCount(hash);
+        long reclaimed = 0;
+        for (String variantHash : imageVariantRepository.deleteIfUnreferenced(hash)) {
+            reclaimed += releaseContent(variantHash);
+        }
+        ImageBlob content = findContent(hash);
+        if (imageBlobRepository.deleteIfUnreferenced(hash) > 0) {
+            afterCommit(() -> {
+                imageStorage.delete(hash, content.getCodec());
+                decompressedImageCache.invalidate(hash);
+                imageFileCache.delete(hash);
+            });
+            reclaimed += content.getStoredLength();
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Метод записывает данные в хранилище в рамках текущей транзакции (см. retireOnRollback)
+     */
+    private void writeStored(String hash, String codec, byte[] data) {
+        imageStorage.write(hash, codec, data);
+        retireOnRollback(hash, codec);
+    }
+
+    private void writeStored(String hash, String codec, Path file) {
+        imageStorage.write(hash, codec, file);
+        retireOnRollback(hash, codec);
+    }
+
+    /**
+     * Файловое хранилище не участвует в транзакции, поэтому при откате записанные данные ставятся в очередь
+     * отложенного удаления. Удалить их сразу нельзя: те же данные могла записать и закоммитить параллельная
+     * загрузка того же содержимого, а очистка проверяет, ссылается ли на них image_blobs
+     */
+    private void retireOnRollback(String hash, String codec) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    imageRetiredDataRepository.retire(hash, codec);
+                }
+            }
+        });
+    }
+
+    /**
+     * Данные удаляются из хранилища только после коммита: при откате строка image_blobs возвращается,
+     * и ее данные должны остаться на месте
+     */
+    private void afterCommit(Runnable action) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
 }
@@ -0,0 +1,203 @@
+package edu.school21.services;
+
+import edu.school21.constants.UploadJobStatus;
+import edu.school21.dto.MessageDto;
+import edu.school21.exceptions.UploadQueueFullException;
+import edu.school21.models.ImageUploadJob;
+import edu.school21.repositories.ImageUploadJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Асинхронная загрузка изображений. Тело запроса сохраняется в файл в каталоге спула, а хеширование, сжатие
+ * и запись в базу выполняет ограниченный пул потоков. Когда очередь пула заполнена, новые загрузки
+ * отклоняются, чтобы не копить файлы и задачи без ограничений.
+ * Каталог спула принадлежит одному узлу: задачи, файлы которых остались в нем после остановки узла,
+ * при запуске переводятся в статус failed, а файлы удаляются
+ */
+@Slf4j
+@Service
+public class ImageUploadService {
+    private static final int MAX_ERROR_LENGTH = 1024;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    private static final String INTERRUPTED_ERROR = "Upload interrupted by server shutdown";
+    private ImageService imageService;
+    private ImageUploadJobRepository imageUploadJobRepository;
+    private Path spoolDirectory;
+    private long jobRetentionSeconds;
+    private ThreadPoolExecutor executor;
+
+    public ImageUploadService(ImageService imageService,
+                              ImageUploadJobRepository imageUploadJobRepository,
+                              @Value("${images.upload.spool-directory}") String spoolDirectory,
+                              @Value("${images.upload.workers}") int workers,
+                              @Value("${images.upload.queue-capacity}") int queueCapacity,
+                              @Value("${images.upload.job-retention-seconds}") long jobRetentionSeconds) {
+        this.imageService = imageService;
+        this.imageUploadJobRepository = imageUploadJobRepository;
+        this.spoolDirectory = Path.of(spoolDirectory).toAbsolutePath();
+        this.jobRetentionSeconds = jobRetentionSeconds;
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public ImageUploadJob findJobById(UUID id) {
+        return imageUploadJobRepository.findById(id)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Upload job with id: %s not found".formatted(id)));
+    }
+
+    /**
+     * Метод переносит загруженный файл в каталог спула (Tomcat уже записал его на диск, поэтому данные
+     * не копируются в кучу) и ставит задачу в очередь обработки
+     *
+     * @param file - загруженный файл
+     * @return созданная задача в статусе pending
+     */
+    public ImageUploadJob submit(MultipartFile file) {
+        ImageUploadJob job = imageUploadJobRepository.save(new ImageUploadJob(UploadJobStatus.PENDING));
+        Path spoolFile = spoolDirectory.resolve(job.getId().toString());
+        try {
+            Files.createDirectories(spoolDirectory);
+            file.transferTo(spoolFile);
+            executor.execute(new UploadTask(job.getId(), spoolFile));
+            return job;
+        } catch (RejectedExecutionException e) {
+            discard(job, spoolFile);
+            throw new UploadQueueFullException("Upload queue is full, retry later");
+        } catch (IOException e) {
+            discard(job, spoolFile);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Scheduled(cron = "${scheduler.images.upload-jobs.cleanup.cron}", zone = "Europe/Moscow")
+    public void cleanFinishedJobs() {
+        imageUploadJobRepository.failStaleJobs(jobRetentionSeconds, INTERRUPTED_ERROR);
+        imageUploadJobRepository.deleteFinishedJobs(jobRetentionSeconds);
+    }
+
+    /**
+     * Метод завершает задачи, оставшиеся от предыдущего запуска узла: пул потоков пуст, поэтому ни один
+     * файл каталога спула уже не обрабатывается
+     */
+    @PostConstruct
+    public void failInterruptedJobs() {
+        if (!Files.isDirectory(spoolDirectory)) {
+            return;
+        }
+        List<UUID> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(spoolDirectory)) {
+            for (Path file : files.toList()) {
+                // рядом с файлом задачи могут остаться временные файлы сжатия с тем же префиксом
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(UUID.fromString(name.substring(0, Math.min(name.length(), 36))));
+                } catch (IllegalArgumentException ignored) {
+                }
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!ids.isEmpty()) {
+            log.info("Upload jobs interrupted by previous shutdown: {}",
+                    imageUploadJobRepository.failUnfinishedJobs(ids, INTERRUPTED_ERROR));
+        }
+    }
+
+    /**
+     * Задачи из очереди, которые еще не начались, сразу переводятся в статус failed, а их файлы удаляются.
+     * Начатые задачи не прерываются и получают время на завершение, а оставшиеся после остановки завершит
+     * failInterruptedJobs при следующем запуске
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        executor.getQueue().drainTo(queued);
+        List<UUID> ids = new ArrayList<>();
+        for (Runnable runnable : queued) {
+            UploadTask task = (UploadTask) runnable;
+            ids.add(task.jobId);
+            deleteSpoolFile(task.spoolFile);
+        }
+        if (!ids.isEmpty()) {
+            imageUploadJobRepository.failUnfinishedJobs(ids, INTERRUPTED_ERROR);
+        }
+        executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Задача перечитывается из базы в потоке пула: сущность, созданная в submit, возвращается в контроллер
+     * и между потоками не передается. Данные сохраняются из файла спула потоком, не загружаясь в кучу целиком
+     */
+    private void process(UUID jobId, Path spoolFile) {
+        ImageUploadJob job = imageUploadJobRepository.findById(jobId).orElse(null);
+        if (job == null) {
+            deleteSpoolFile(spoolFile);
+            return;
+        }
+        try {
+            job.setStatus(UploadJobStatus.PROCESSING);
+            job = imageUploadJobRepository.save(job);
+            MessageDto saved = imageService.saveImage(spoolFile);
+            job.setStatus(UploadJobStatus.COMPLETED);
+            job.setImageId(saved.getId());
+        } catch (Exception e) {
+            String error = String.valueOf(e.getMessage());
+            job.setStatus(UploadJobStatus.FAILED);
+            job.setError(error.substring(0, Math.min(error.length(), MAX_ERROR_LENGTH)));
+        } finally {
+            imageUploadJobRepository.save(job);
+            deleteSpoolFile(spoolFile);
+        }
+    }
+
+    private void discard(ImageUploadJob job, Path spoolFile) {
+        deleteSpoolFile(spoolFile);
+        imageUploadJobRepository.deleteById(job.getId());
+    }
+
+    private void deleteSpoolFile(Path spoolFile) {
+        try {
+            Files.deleteIfExists(spoolFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class UploadTask implements Runnable {
+        private final UUID jobId;
+        private final Path spoolFile;
+
+        UploadTask(UUID jobId, Path spoolFile) {
+            this.jobId = jobId;
+            this.spoolFile = spoolFile;
+        }
+
+        @Override
+        public void run() {
+            process(jobId, spoolFile);
+        }
+    }
+}
@@ -1,55 +1,99 @@
 package edu.school21.services;
 
 import edu.school21.exceptions.InsufficientStockException;
+import edu.school21.exceptions.ReservationFailedException;
 import edu.school21.models.Category;
-import edu.school21.models.Image;
+import edu.school21.models.ImageMetadata;
+import edu.school21.models.PageCursor;
 import edu.school21.models.Product;
+import edu.school21.models.ReservationLine;
+import edu.school21.models.StockShortfall;
+import edu.school21.repositories.ImageMetadataRepository;
 import edu.school21.repositories.ProductRepository;
-import edu.school21.utils.ImageUtils;
+import edu.school21.repositories.ProductStockSlotRepository;
 import edu.school21.utils.PatchMappingUtils;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductService {
-    private ImageUtils imageUtils;
     private CategoryService categoryService;
     private ProductRepository productRepository;
+    private ImageMetadataRepository imageMetadataRepository;
     private PatchMappingUtils patchMappingUtils;
+    private StockLedgerService stockLedgerService;
+    private ProductStockSlotRepository productStockSlotRepository;
+    private StockReductionService stockReductionService;
+    private TransactionTemplate transactionTemplate;
 
-    public ProductService(ImageUtils imageUtils,
-                          CategoryService categoryService,
+    public ProductService(CategoryService categoryService,
                           ProductRepository productRepository,
-                          PatchMappingUtils patchMappingUtils) {
-        this.imageUtils = imageUtils;
+                          ImageMetadataRepository imageMetadataRepository,
+                          PatchMappingUtils patchMappingUtils,
+                          StockLedgerService stockLedgerService,
+                          ProductStockSlotRepository productStockSlotRepository,
+                          StockReductionService stockReductionService,
+                          TransactionTemplate transactionTemplate) {
         this.categoryService = categoryService;
         this.productRepository = productRepository;
+        this.imageMetadataRepository = imageMetadataRepository;
         this.patchMappingUtils = patchMappingUtils;
+        this.stockLedgerService = stockLedgerService;
+        this.productStockSlotRepository = productStockSlotRepository;
+        this.stockReductionService = stockReductionService;
+        this.transactionTemplate = transactionTemplate;
     }
 
     public List<Product> findAll() {
-        return productRepository.findAll();
+        return fillDetachedStock(productRepository.findAll());
     }
 
     public Page<Product> findAll(Pageable pageable) {
-        return productRepository.findAll(pageable);
+        Page<Product> products = productRepository.findAll(pageable);
+        fillDetachedStock(products.getContent());
+        return products;
+    }
+
+    /**
+     * @param cursor - позиция после последней записи предыдущей страницы, null - первая страница
+     * @param limit  - размер страницы
+     */
+    public Slice<Product> findAll(PageCursor cursor, int limit) {
+        Slice<Product> products = cursor == null
+                ? productRepository.findAllByOrderByNameAscIdAsc(PageRequest.of(0, limit))
+                : productRepository.findAllAfter(cursor.key(), cursor.id(), PageRequest.of(0, limit));
+        fillDetachedStock(products.getContent());
+        return products;
     }
 
     public Product findById(UUID id) {
-        return productRepository.findById(id)
+        Product product = productRepository.findById(id)
                 .orElseThrow(() -> new EntityNotFoundException(
                         "Product with id: %s not found".formatted(id)));
+        fillDetachedStock(List.of(product));
+        return product;
     }
 
-    public byte[] getImageByProductId(UUID id) {
-        Image image = findById(id).getImage();
-        return imageUtils.decompressImage(image.getImage());
+    public ImageMetadata findImageByProductId(UUID id) {
+        return imageMetadataRepository.findByProductId(id)
+                .orElseThrow(() -> new EntityNotFoundException(
+                        "Product with id: %s not found".formatted(id)));
     }
 
     @Transactional
@@ -70,25 +114,168 @@ public class ProductService {
         }
     }
 
+    /**
+     * Остаток из запроса заменяет полный остаток товара, поэтому слоты и аренда товара обнуляются
+     */
+    @Transactional
     public Product putUpdateProduct(UUID id, Product product) {
-        if (productRepository.existsById(id)) {
+        if (!productRepository.findAllByIdForUpdate(List.of(id)).isEmpty()) {
+            productStockSlotRepository.clear(id);
+            stockLedgerService.reset(id);
             product.setId(id);
         }
         return saveProduct(product);
     }
 
+    /**
+     * Метод списывает товар со склада. Без конкуренции списание - один условный UPDATE, который сразу
+     * возвращает товар, а параллельные списания объединяются в пачки (см. StockReductionService).
+     * Если в строке товара остатка нет, списание идет из слотов
+     * (см. ProductStockSlotRepository). При неудаче товар читается повторно, чтобы отличить отсутствующий товар
+     * от недостаточного остатка. Горячий товар, остаток которого ведет этот узел, списывается в памяти
+     * (см. StockLedgerService). Если узел перестал вести товар между проверкой и списанием, списание идет
+     * через базу
+     *
+     * @param id     - идентификатор товара
+     * @param amount - списываемое количество
+     * @return товар после списания
+     */
     public Product patchReductionAvailableProduct(UUID id, Integer amount) {
-        Product product = findById(id);
-        if (product.getAvailableStock() < amount) {
+        StockLedgerService.TakeResult ledger = stockLedgerService.take(id, amount);
+        if (ledger == StockLedgerService.TakeResult.TAKEN) {
+            return findById(id);
+        }
+        if (ledger == StockLedgerService.TakeResult.INSUFFICIENT) {
             throw new InsufficientStockException(("Insufficient stock for product with id: %s. " +
-                    "Available stock: %d, requested: %d").formatted(id, product.getAvailableStock(), amount));
+                    "Available stock: %d, requested: %d").formatted(id, stockLedgerService.available(id), amount));
+        }
+        Optional<Product> reduced = stockReductionService.reduce(id, amount);
+        if (reduced.isPresent()) {
+            return fillDetachedStock(List.of(reduced.get())).get(0);
+        }
+        if (productStockSlotRepository.reduce(id, amount)) {
+            return findById(id);
+        }
+        Product product = findById(id);
+        throw new InsufficientStockException(("Insufficient stock for product with id: %s. " +
+                "Available stock: %d, requested: %d").formatted(id, availableStock(product), amount));
+    }
+
+    /**
+     * Метод резервирует товары корзины: либо списываются все строки, либо ни одна
+     * (см. reserveProducts(List, Function))
+     *
+     * @param lines - строки корзины
+     * @return товары после списания в порядке первого упоминания в корзине
+     */
+    public List<Product> reserveProducts(List<ReservationLine> lines) {
+        return reserveProducts(lines, Function.identity());
+    }
+
+    /**
+     * Метод резервирует товары корзины в одной транзакции: либо списываются все строки, либо ни одна.
+     * Строки с одинаковым товаром суммируются, товары блокируются в порядке id, а при нехватке хотя бы
+     * одного товара возвращаются все нехватки сразу. Горячие товары этого узла списываются в памяти
+     * до начала транзакции: списание ждет записи escrow, которой нужно свое соединение, и ожидание
+     * с занятым соединением при распродаже выбрало бы весь пул. Если транзакция не закоммитилась,
+     * списанное возвращается. У товаров со слотами после строки товара блокируются и слоты.
+     * Метод не должен вызываться внутри транзакции
+     *
+     * @param lines         - строки корзины
+     * @param inTransaction - действие в той же транзакции после списания, например сохранение резерва
+     * @return результат inTransaction для товаров после списания в порядке первого упоминания в корзине
+     */
+    public <T> T reserveProducts(List<ReservationLine> lines, Function<List<Product>, T> inTransaction) {
+        Map<UUID, Integer> amounts = lines.stream()
+                .collect(Collectors.toMap(ReservationLine::productId, ReservationLine::amount, Integer::sum,
+                        LinkedHashMap::new));
+        Map<UUID, Integer> taken = new HashMap<>();
+        Map<UUID, StockLedgerService.TakeResult> ledger = new HashMap<>();
+        try {
+            amounts.forEach((id, amount) -> {
+                StockLedgerService.TakeResult result = stockLedgerService.take(id, amount);
+                if (result == StockLedgerService.TakeResult.TAKEN) {
+                    taken.put(id, amount);
+                }
+                ledger.put(id, result);
+            });
+            return transactionTemplate.execute(status -> inTransaction.apply(reserveLocked(amounts, ledger)));
+        } catch (RuntimeException e) {
+            taken.forEach(stockLedgerService::refund);
+            throw e;
         }
-        product.setAvailableStock(product.getAvailableStock() - amount);
-        return productRepository.save(product);
     }
 
+    /**
+     * Метод блокирует товары и слоты и списывает строки, которые не списаны в памяти.
+     * Вызывается в транзакции
+     */
+    private List<Product> reserveLocked(Map<UUID, Integer> amounts, Map<UUID, StockLedgerService.TakeResult> ledger) {
+        List<StockShortfall> shortfalls = new ArrayList<>();
+        Map<UUID, Product> products = productRepository.findAllByIdForUpdate(amounts.keySet()).stream()
+                .collect(Collectors.toMap(Product::getId, Function.identity()));
+        Map<UUID, Integer> slotStock = productStockSlotRepository.lockSlotStock(products.values().stream()
+                .filter(product -> isSharded(product)
+                        && ledger.get(product.getId()) == StockLedgerService.TakeResult.NOT_OWNED)
+                .map(Product::getId)
+                .toList());
+        amounts.forEach((id, amount) -> {
+            Product product = products.get(id);
+            if (product == null) {
+                throw new EntityNotFoundException("Product with id: %s not found".formatted(id));
+            }
+            if (ledger.get(id) == StockLedgerService.TakeResult.INSUFFICIENT) {
+                shortfalls.add(new StockShortfall(id, amount, stockLedgerService.available(id)));
+            } else if (ledger.get(id) == StockLedgerService.TakeResult.NOT_OWNED
+                    && product.getAvailableStock() + slotStock.getOrDefault(id, 0) < amount) {
+                shortfalls.add(new StockShortfall(id, amount,
+                        product.getAvailableStock() + slotStock.getOrDefault(id, 0)));
+            }
+        });
+        if (!shortfalls.isEmpty()) {
+            throw new ReservationFailedException("Insufficient stock for %d of %d products"
+                    .formatted(shortfalls.size(), amounts.size()), shortfalls);
+        }
+        List<Product> reserved = amounts.entrySet().stream()
+                .map(entry -> {
+                    Product product = products.get(entry.getKey());
+                    if (ledger.get(entry.getKey()) == StockLedgerService.TakeResult.NOT_OWNED) {
+                        int fromProduct = Math.min(product.getAvailableStock(), entry.getValue());
+                        product.setAvailableStock(product.getAvailableStock() - fromProduct);
+                        if (fromProduct < entry.getValue()) {
+                            productStockSlotRepository.take(entry.getKey(), entry.getValue() - fromProduct);
+                        }
+                    }
+                    return product;
+                })
+                .toList();
+        return fillDetachedStock(reserved);
+    }
+
+    /**
+     * Метод меняет количество слотов, по которым разложен остаток товара, сохраняя полный остаток
+     *
+     * @param id    - идентификатор товара
+     * @param slots - количество слотов, 0 - хранить остаток только в строке товара
+     * @return товар после перераспределения
+     */
+    public Product reshardProduct(UUID id, int slots) {
+        if (!productStockSlotRepository.reshard(id, slots)) {
+            throw new EntityNotFoundException("Product with id: %s not found".formatted(id));
+        }
+        return findById(id);
+    }
+
+    /**
+     * Если в запросе есть остаток, он заменяет полный остаток товара, поэтому слоты и аренда товара обнуляются
+     */
     @Transactional
     public Product patchUpdateProduct(UUID id, Product product) {
+        if (product.getAvailableStock() != null
+                && !productRepository.findAllByIdForUpdate(List.of(id)).isEmpty()) {
+            productStockSlotRepository.clear(id);
+            stockLedgerService.reset(id);
+        }
         Product existingProduct = findById(id);
         if (product.getCategory() != null) {
             Category category = categoryService.saveIfNotExist(product.getCategory().getName());
@@ -97,4 +284,34 @@ public class ProductService {
         patchMappingUtils.mappingProduct(existingProduct, product);
         return productRepository.save(existingProduct);
     }
+
+    /**
+     * Метод заполняет остаток, вынесенный из строки товара в аренды горячих товаров и в слоты,
+     * не больше чем двумя запросами на все товары
+     */
+    private List<Product> fillDetachedStock(List<Product> products) {
+        Map<UUID, Integer> detached = new HashMap<>(stockLedgerService.findLeasedStock(products.stream()
+                .map(Product::getId)
+                .toList()));
+        List<UUID> sharded = products.stream()
+                .filter(this::isSharded)
+                .map(Product::getId)
+                .toList();
+        if (!sharded.isEmpty()) {
+            productStockSlotRepository.findSlotStock(sharded)
+                    .forEach((id, stock) -> detached.merge(id, stock, Integer::sum));
+        }
+        if (!detached.isEmpty()) {
+            products.forEach(product -> product.setDetachedStock(detached.get(product.getId())));
+        }
+        return products;
+    }
+
+    private boolean isSharded(Product product) {
+        return product.getStockSlots() != null && product.getStockSlots() > 0;
+    }
+
+    private int availableStock(Product product) {
+        return product.getAvailableStock() + (product.getDetachedStock() == null ? 0 : product.getDetachedStock());
+    }
 }
@@ -0,0 +1,166 @@
+package edu.school21.services;
+
+import edu.school21.models.ReservationLine;
+import edu.school21.models.StockHold;
+import edu.school21.repositories.StockHoldRepository;
+import edu.school21.utils.TimingWheel;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Временные резервы корзин. Создание резерва списывает остаток так же, как резервирование корзины, и сохраняет
+ * резерв в stock_holds. Срок каждого резерва отслеживает колесо таймеров в памяти, поэтому истечение стоит O(1)
+ * на резерв, а не периодический просмотр таблицы. При запуске узла колесо заполняется из таблицы.
+ * Подтвержденные и отмененные резервы остаются в колесе до срока и при срабатывании просто не находятся в базе.
+ * Резервы, созданные узлом, который остановился и не запустился снова, подбирает cleanOverdueHolds
+ */
+@Slf4j
+@Service
+public class StockHoldService {
+    private ProductService productService;
+    private StockHoldRepository stockHoldRepository;
+    private TimingWheel<UUID> timingWheel;
+    private int batchSize;
+    private long graceSeconds;
+
+    public StockHoldService(ProductService productService,
+                            StockHoldRepository stockHoldRepository,
+                            @Value("${stock.holds.tick-millis}") long tickMillis,
+                            @Value("${stock.holds.wheel-size}") int wheelSize,
+                            @Value("${stock.holds.batch-size}") int batchSize,
+                            @Value("${stock.holds.cleanup.grace-period-seconds}") long graceSeconds) {
+        this.productService = productService;
+        this.stockHoldRepository = stockHoldRepository;
+        this.timingWheel = new TimingWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+        this.batchSize = batchSize;
+        this.graceSeconds = graceSeconds;
+    }
+
+    /**
+     * Метод заполняет колесо резервами из таблицы. Резервы с прошедшим сроком снимаются на первом тике
+     */
+    @PostConstruct
+    public void rebuild() {
+        stockHoldRepository.findAllExpirations(this::schedule);
+        log.info("Stock holds restored: {}", timingWheel.size());
+    }
+
+    /**
+     * Метод списывает остаток строк и создает резерв в одной транзакции со списанием
+     * (см. ProductService.reserveProducts). Строки с одинаковым товаром суммируются
+     *
+     * @param lines      - строки корзины
+     * @param ttlSeconds - срок резерва в секундах
+     * @return созданный резерв
+     */
+    public StockHold createHold(List<ReservationLine> lines, long ttlSeconds) {
+        List<ReservationLine> merged = lines.stream()
+                .collect(Collectors.toMap(ReservationLine::productId, ReservationLine::amount, Integer::sum,
+                        LinkedHashMap::new))
+                .entrySet().stream()
+                .map(entry -> new ReservationLine(entry.getKey(), entry.getValue()))
+                .toList();
+        return productService.reserveProducts(merged, reserved -> {
+            StockHold hold = stockHoldRepository.insert(merged, ttlSeconds);
+            scheduleAfterCommit(hold);
+            return hold;
+        });
+    }
+
+    /**
+     * Метод подтверждает резерв: остаток остается списанным
+     */
+    public void confirmHold(UUID id) {
+        if (!stockHoldRepository.confirm(id)) {
+            throw new EntityNotFoundException("Stock hold with id: %s not found".formatted(id));
+        }
+    }
+
+    /**
+     * Метод отменяет резерв и возвращает остаток на склад
+     */
+    public void releaseHold(UUID id) {
+        if (stockHoldRepository.release(List.of(id), false).isEmpty()) {
+            throw new EntityNotFoundException("Stock hold with id: %s not found".formatted(id));
+        }
+    }
+
+    /**
+     * Метод снимает резервы, срок которых наступил, пачками по batchSize. Колесо уже не содержит эти резервы,
+     * поэтому пачка, которую не удалось снять (взаимная блокировка, сбой базы), возвращается в колесо
+     * и повторяется на следующем тике, а остальные пачки тика снимаются как обычно
+     */
+    @Scheduled(fixedDelayString = "${stock.holds.tick-millis}")
+    public void expireHolds() {
+        long now = System.currentTimeMillis();
+        List<UUID> expired = new ArrayList<>();
+        timingWheel.advance(now, expired::add);
+        for (int from = 0; from < expired.size(); from += batchSize) {
+            List<UUID> batch = expired.subList(from, Math.min(from + batchSize, expired.size()));
+            try {
+                List<UUID> released = stockHoldRepository.release(batch, true);
+                if (released.size() < batch.size()) {
+                    reschedule(batch);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Stock holds release failed, {} holds are retried on the next tick", batch.size(), e);
+                batch.forEach(id -> timingWheel.add(id, now));
+            }
+        }
+    }
+
+    /**
+     * Страховка для резервов узлов, которые остановились аварийно и не запустились снова: их колесо
+     * потеряно, а другие узлы загружают резервы только при своем запуске. Просроченные резервы
+     * выбираются по индексу stock_holds_expires_at_idx
+     */
+    @Scheduled(cron = "${scheduler.stock.holds.cleanup.cron}", zone = "Europe/Moscow")
+    public void cleanOverdueHolds() {
+        List<UUID> overdue = stockHoldRepository.findOverdue(graceSeconds, batchSize);
+        while (!overdue.isEmpty()) {
+            stockHoldRepository.release(overdue, true);
+            overdue = overdue.size() < batchSize ? List.of() : stockHoldRepository.findOverdue(graceSeconds, batchSize);
+        }
+    }
+
+    /**
+     * Часы узла и базы могут расходиться, поэтому резерв, срок которого по часам базы еще не наступил,
+     * возвращается в колесо
+     */
+    private void reschedule(List<UUID> ids) {
+        stockHoldRepository.findExpirations(ids).forEach(this::schedule);
+    }
+
+    /**
+     * Резерв попадает в колесо только после коммита: тик, сработавший раньше, не нашел бы его строку
+     * в findExpirations и потерял бы резерв
+     */
+    private void scheduleAfterCommit(StockHold hold) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                schedule(hold.id(), hold.expiresAt());
+            }
+        });
+    }
+
+    /**
+     * Резерв с прошедшим сроком попадает в текущий слот колеса и снимается на следующем тике
+     */
+    private void schedule(UUID id, Timestamp expiresAt) {
+        timingWheel.add(id, Math.max(expiresAt.getTime(), System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,301 @@
+package edu.school21.services;
+
+import edu.school21.repositories.StockLeaseRepository;
+import edu.school21.utils.StripedStockCounter;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Режим горячих SKU для распродаж (stock.ledger.enabled=true). Узел берет аренду на товары из
+ * stock.ledger.products и переносит их остаток из products.available_stock в escrow аренды.
+ * Списания выполняются в StripedStockCounter в памяти, а подтверждаются только после записи остатка в escrow.
+ * Запись выполняет один поток: все списания, сделанные пока идет предыдущая запись, попадают в следующую
+ * одним пакетным запросом (групповой коммит), поэтому на продажу приходится не запрос к базе, а доля запроса.
+ * Периодический flush продлевает аренды и забирает пополнение склада, записанное в products.available_stock.
+ * Аренда не дает двум узлам одновременно продавать один и тот же остаток: пока она принадлежит узлу,
+ * в products.available_stock остатка нет.
+ * При остановке узла остаток возвращается в products. После аварийного завершения следующий владелец
+ * наследует escrow последней записи, в которой уже учтены все подтвержденные списания. Не подтвержденные
+ * списания и возвраты после отката резервирований могут не попасть в escrow, и этот остаток не будет продан
+ * до ручной проверки, но продан повторно он не будет
+ */
+@Service
+public class StockLedgerService {
+    /**
+     * Результат списания: остатка недостаточно или товар не ведет этот узел (аренда истекла
+     * или перешла к другому узлу), и списывать нужно через базу
+     */
+    public enum TakeResult {
+        TAKEN, INSUFFICIENT, NOT_OWNED
+    }
+
+    private static final CompletableFuture<Boolean> RELEASED = CompletableFuture.completedFuture(false);
+    private StockLeaseRepository stockLeaseRepository;
+    private Map<UUID, LeasedStock> leases = new ConcurrentHashMap<>();
+    private boolean enabled;
+    private Set<UUID> hotProductIds;
+    private String nodeId;
+    private long leaseSeconds;
+    private int stripes;
+    private volatile long leaseDeadline;
+    private final Object escrowLock = new Object();
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private ExecutorService committer = Executors.newSingleThreadExecutor();
+
+    public StockLedgerService(StockLeaseRepository stockLeaseRepository,
+                              @Value("${stock.ledger.enabled}") boolean enabled,
+                              @Value("${stock.ledger.products}") List<UUID> hotProductIds,
+                              @Value("${stock.ledger.node-id}") String nodeId,
+                              @Value("${stock.ledger.lease-seconds}") long leaseSeconds,
+                              @Value("${stock.ledger.stripes}") int stripes) {
+        this.stockLeaseRepository = stockLeaseRepository;
+        this.enabled = enabled;
+        this.hotProductIds = Set.copyOf(hotProductIds);
+        this.nodeId = nodeId;
+        this.leaseSeconds = leaseSeconds;
+        this.stripes = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param productId - идентификатор товара
+     * @return true, если остаток товара сейчас ведет этот узел
+     */
+    public boolean owns(UUID productId) {
+        return enabled && leases.containsKey(productId) && System.nanoTime() - leaseDeadline < 0;
+    }
+
+    /**
+     * Метод списывает товар из памяти узла и ждет записи остатка в escrow. Вызывающий код не должен держать
+     * открытую транзакцию: запись выполняется со своим соединением из того же пула, и при распродаже ожидающие
+     * с занятыми соединениями выбрали бы весь пул. Блокировки строк products ждет и flush, который пишет escrow
+     * в том же порядке, что и групповой коммит
+     *
+     * @param productId - идентификатор товара
+     * @param amount    - списываемое количество
+     * @return TAKEN, если списание записано в escrow
+     */
+    public TakeResult take(UUID productId, int amount) {
+        LeasedStock stock = leases.get(productId);
+        if (stock == null || !owns(productId)) {
+            return TakeResult.NOT_OWNED;
+        }
+        if (!stock.counter.tryTake(amount)) {
+            return TakeResult.INSUFFICIENT;
+        }
+        // списание сделано раньше чтения commit, поэтому попадет в остаток, который запишет эта запись
+        CompletableFuture<Boolean> commit = stock.commit;
+        scheduleCommit();
+        boolean committed;
+        try {
+            committed = commit.join();
+        } catch (CompletionException e) {
+            stock.counter.add(amount);
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        return committed ? TakeResult.TAKEN : TakeResult.NOT_OWNED;
+    }
+
+    /**
+     * Метод возвращает ранее списанное количество, например при откате резервирования
+     */
+    public void refund(UUID productId, int amount) {
+        LeasedStock stock = leases.get(productId);
+        if (stock != null) {
+            stock.counter.add(amount);
+        }
+    }
+
+    /**
+     * Метод сбрасывает остаток, вынесенный в аренду товара, когда полный остаток задается заново.
+     * Строка товара должна быть уже заблокирована. Списания в памяти, еще не записанные в escrow,
+     * не подтверждаются и идут через базу уже из нового остатка
+     */
+    public void reset(UUID productId) {
+        stockLeaseRepository.delete(productId);
+    }
+
+    public int available(UUID productId) {
+        LeasedStock stock = leases.get(productId);
+        return stock == null ? 0 : stock.counter.sum();
+    }
+
+    /**
+     * Метод возвращает остаток, вынесенный из products.available_stock в аренды: для товаров этого узла
+     * из памяти, для остальных - последний записанный escrow
+     *
+     * @param productIds - идентификаторы товаров
+     * @return остаток по идентификатору товара, товары без аренды не включаются
+     */
+    public Map<UUID, Integer> findLeasedStock(Collection<UUID> productIds) {
+        if (!enabled || productIds.isEmpty()) {
+            return Map.of();
+        }
+        Map<UUID, Integer> leased = new HashMap<>(stockLeaseRepository.findEscrow(productIds));
+        // аренду, снятую в базе (см. reset), узел еще может держать в памяти до следующей записи
+        productIds.stream()
+                .filter(productId -> leases.containsKey(productId) && leased.containsKey(productId))
+                .forEach(productId -> leased.put(productId, available(productId)));
+        return leased;
+    }
+
+    /**
+     * Метод записывает остатки в escrow и продлевает аренды, берет аренды на горячие товары, которых
+     * у узла еще нет, и возвращает в products остаток истекших аренд товаров, переставших быть горячими
+     */
+    @Scheduled(fixedDelayString = "${stock.ledger.flush-interval}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        synchronized (escrowLock) {
+            Map<UUID, CompletableFuture<Boolean>> commits = new HashMap<>();
+            Map<UUID, Integer> remaining = snapshot(commits);
+            if (!remaining.isEmpty()) {
+                Map<UUID, Integer> restocked;
+                try {
+                    restocked = stockLeaseRepository.flush(remaining, nodeId, leaseSeconds);
+                } catch (RuntimeException e) {
+                    commits.values().forEach(commit -> commit.completeExceptionally(e));
+                    throw e;
+                }
+                complete(commits, restocked.keySet());
+                restocked.forEach((productId, amount) -> {
+                    if (amount > 0) {
+                        leases.get(productId).counter.add(amount);
+                    }
+                });
+            }
+        }
+        for (UUID productId : hotProductIds) {
+            if (!leases.containsKey(productId)) {
+                Integer escrow = stockLeaseRepository.acquire(productId, nodeId, leaseSeconds);
+                if (escrow != null) {
+                    leases.put(productId, new LeasedStock(new StripedStockCounter(escrow, stripes)));
+                }
+            }
+        }
+        // аренды продлены не раньше start, поэтому локальный срок истекает раньше срока в базе
+        leaseDeadline = start + TimeUnit.SECONDS.toNanos(leaseSeconds);
+        stockLeaseRepository.releaseExpired(hotProductIds);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        committer.shutdown();
+        committer.awaitTermination(leaseSeconds, TimeUnit.SECONDS);
+        if (!enabled) {
+            return;
+        }
+        synchronized (escrowLock) {
+            for (UUID productId : List.copyOf(leases.keySet())) {
+                LeasedStock stock = leases.remove(productId);
+                CompletableFuture<Boolean> commit = stock.commit;
+                stock.commit = RELEASED;
+                try {
+                    stockLeaseRepository.release(productId, nodeId, stock.counter.sum());
+                    commit.complete(true);
+                } catch (RuntimeException e) {
+                    commit.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Запись ставится в очередь, только если ее там еще нет: списания, сделанные до начала записи, она учтет
+     */
+    private void scheduleCommit() {
+        if (commitScheduled.compareAndSet(false, true)) {
+            try {
+                committer.execute(this::commitEscrow);
+            } catch (RejectedExecutionException e) {
+                // узел останавливается, ожидающие списания завершит close
+                commitScheduled.set(false);
+            }
+        }
+    }
+
+    private void commitEscrow() {
+        commitScheduled.set(false);
+        synchronized (escrowLock) {
+            Map<UUID, CompletableFuture<Boolean>> commits = new HashMap<>();
+            Map<UUID, Integer> remaining = snapshot(commits);
+            if (remaining.isEmpty()) {
+                return;
+            }
+            try {
+                complete(commits, stockLeaseRepository.updateEscrow(remaining, nodeId));
+            } catch (RuntimeException e) {
+                commits.values().forEach(commit -> commit.completeExceptionally(e));
+            }
+        }
+    }
+
+    /**
+     * Метод заменяет ожидание записи у каждого товара новым и только после этого читает остаток, поэтому
+     * списания всех, кто получил замененное ожидание, входят в прочитанный остаток
+     *
+     * @param commits - заполняется замененными ожиданиями по идентификатору товара
+     * @return остаток для записи по идентификатору товара
+     */
+    private Map<UUID, Integer> snapshot(Map<UUID, CompletableFuture<Boolean>> commits) {
+        Map<UUID, Integer> remaining = new HashMap<>();
+        leases.forEach((productId, stock) -> {
+            commits.put(productId, stock.commit);
+            stock.commit = new CompletableFuture<>();
+            remaining.put(productId, stock.counter.sum());
+        });
+        return remaining;
+    }
+
+    /**
+     * Товары, аренда которых больше не принадлежит узлу, снимаются с учета: их списания не подтверждаются,
+     * и вызывающий код списывает через базу
+     */
+    private void complete(Map<UUID, CompletableFuture<Boolean>> commits, Set<UUID> owned) {
+        commits.forEach((productId, commit) -> {
+            if (owned.contains(productId)) {
+                commit.complete(true);
+                return;
+            }
+            LeasedStock stock = leases.remove(productId);
+            commit.complete(false);
+            if (stock != null) {
+                CompletableFuture<Boolean> next = stock.commit;
+                stock.commit = RELEASED;
+                next.complete(false);
+            }
+        });
+    }
+
+    private static class LeasedStock {
+        private final StripedStockCounter counter;
+        private volatile CompletableFuture<Boolean> commit = new CompletableFuture<>();
+
+        LeasedStock(StripedStockCounter counter) {
+            this.counter = counter;
+        }
+    }
+}
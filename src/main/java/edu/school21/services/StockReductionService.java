@@ -0,0 +1,200 @@
+package edu.school21.services;
+
+import edu.school21.models.Product;
+import edu.school21.models.ReservationLine;
+import edu.school21.repositories.ProductRepository;
+import edu.school21.repositories.StockReductionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Групповое списание товаров. Запросы раскладываются по полосам по идентификатору товара. Поток, захвативший
+ * полосу, забирает все накопившиеся в ней запросы и списывает их сумму по каждому товару одним условным UPDATE,
+ * а запросы, пришедшие за это время, ждут и уходят следующей пачкой. Без конкуренции пачка состоит из одного
+ * запроса, и списание стоит один запрос к базе. Только если суммы нескольких запросов не хватило, строки таких
+ * товаров блокируются и запросы удовлетворяются по очереди, пока хватает остатка. Запросы одного товара всегда
+ * попадают в одну полосу, поэтому пачки узла не конкурируют между собой за строки
+ */
+@Service
+public class StockReductionService {
+    /**
+     * Признак списания для запросов других потоков: товар, прочитанный потоком пачки, привязан к его сессии
+     * и другим потокам не передается
+     */
+    private static final Product GRANTED = new Product();
+    private StockReductionRepository stockReductionRepository;
+    private ProductRepository productRepository;
+    private TransactionTemplate transactionTemplate;
+    private Lane[] lanes;
+    private long windowNanos;
+
+    public StockReductionService(StockReductionRepository stockReductionRepository,
+                                 ProductRepository productRepository,
+                                 TransactionTemplate transactionTemplate,
+                                 @Value("${stock.combiner.lanes}") int lanes,
+                                 @Value("${stock.combiner.window-micros}") long windowMicros) {
+        this.stockReductionRepository = stockReductionRepository;
+        this.productRepository = productRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.lanes = new Lane[lanes];
+        for (int i = 0; i < lanes; i++) {
+            this.lanes[i] = new Lane();
+        }
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * Метод списывает товар из строки товара в составе пачки
+     *
+     * @param productId - идентификатор товара
+     * @param amount    - списываемое количество
+     * @return товар после списания или пустой Optional, если товара нет или в строке товара недостаточно остатка
+     */
+    public Optional<Product> reduce(UUID productId, int amount) {
+        Lane lane = lanes[Math.floorMod(productId.hashCode(), lanes.length)];
+        Request request = new Request(new ReservationLine(productId, amount), new CompletableFuture<>());
+        lane.requests.add(request);
+        lane.lock.lock();
+        try {
+            if (!request.result().isDone()) {
+                combine(lane, request);
+            }
+        } finally {
+            lane.lock.unlock();
+        }
+        Product product;
+        try {
+            product = request.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return product == GRANTED ? productRepository.findById(productId) : Optional.ofNullable(product);
+    }
+
+    /**
+     * Метод выполняет все накопившиеся запросы полосы. Вызывается под блокировкой полосы.
+     * Сумма запросов каждого товара списывается одним условным UPDATE. Если ее не хватило, одиночный запрос
+     * отклоняется сразу: UPDATE проверял последний закоммиченный остаток. Запросы товаров, которым не хватило
+     * суммы нескольких запросов, списываются блокировкой строк (см. grantContended)
+     */
+    private void combine(Lane lane, Request own) {
+        if (windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+        List<Request> batch = new ArrayList<>();
+        for (Request request = lane.requests.poll(); request != null; request = lane.requests.poll()) {
+            batch.add(request);
+        }
+        List<Request> contended = new ArrayList<>();
+        groupByProduct(batch).forEach((productId, requests) -> {
+            long total = requests.stream()
+                    .mapToLong(request -> request.line().amount())
+                    .sum();
+            try {
+                Product product = total > Integer.MAX_VALUE ? null
+                        : productRepository.reduceAvailableStock(productId, (int) total).orElse(null);
+                if (product != null || requests.size() == 1) {
+                    requests.forEach(request -> complete(request, product, own));
+                } else {
+                    contended.addAll(requests);
+                }
+            } catch (RuntimeException e) {
+                requests.forEach(request -> request.result().completeExceptionally(e));
+            }
+        });
+        if (!contended.isEmpty()) {
+            grantContended(contended, own);
+        }
+    }
+
+    /**
+     * Метод списывает запросы одной транзакцией с блокировкой строк товаров (см. StockReductionRepository.reduceAll).
+     * Если пачка из нескольких товаров завершилась ошибкой, запросы выполняются заново отдельной транзакцией
+     * на товар, поэтому ошибка одного товара (например, удаленного или заблокированного надолго) не проваливает
+     * списания остальных товаров полосы
+     */
+    private void grantContended(List<Request> batch, Request own) {
+        try {
+            reduceAll(batch, own);
+        } catch (RuntimeException e) {
+            Map<UUID, List<Request>> byProduct = groupByProduct(batch);
+            if (byProduct.size() == 1) {
+                batch.forEach(request -> request.result().completeExceptionally(e));
+                return;
+            }
+            byProduct.values().forEach(requests -> {
+                try {
+                    reduceAll(requests, own);
+                } catch (RuntimeException productException) {
+                    requests.forEach(request -> request.result().completeExceptionally(productException));
+                }
+            });
+        }
+    }
+
+    /**
+     * Товары удовлетворенных запросов читаются в той же транзакции, поэтому при ошибке чтения списание
+     * откатывается и может быть повторено
+     */
+    private void reduceAll(List<Request> batch, Request own) {
+        List<Product> results = transactionTemplate.execute(status -> {
+            boolean[] granted = stockReductionRepository.reduceAll(batch.stream()
+                    .map(Request::line)
+                    .toList());
+            List<UUID> grantedIds = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (granted[i]) {
+                    grantedIds.add(batch.get(i).line().productId());
+                }
+            }
+            Map<UUID, Product> products = productRepository.findAllById(grantedIds).stream()
+                    .collect(Collectors.toMap(Product::getId, Function.identity()));
+            List<Product> reduced = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                reduced.add(granted[i] ? products.get(batch.get(i).line().productId()) : null);
+            }
+            return reduced;
+        });
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), results.get(i), own);
+        }
+    }
+
+    private static void complete(Request request, Product product, Request own) {
+        request.result().complete(product == null || request == own ? product : GRANTED);
+    }
+
+    private static Map<UUID, List<Request>> groupByProduct(List<Request> batch) {
+        return batch.stream()
+                .collect(Collectors.groupingBy(request -> request.line().productId(), LinkedHashMap::new,
+                        Collectors.toList()));
+    }
+
+    private record Request(ReservationLine line, CompletableFuture<Product> result) {
+    }
+
+    private static class Lane {
+        private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+        private final ReentrantLock lock = new ReentrantLock();
+    }
+}
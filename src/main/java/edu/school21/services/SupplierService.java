@@ -1,11 +1,14 @@
 package edu.school21.services;
 
+import edu.school21.models.PageCursor;
 import edu.school21.models.Supplier;
 import edu.school21.repositories.SupplierRepository;
 import edu.school21.utils.PatchMappingUtils;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -40,6 +43,17 @@ public class SupplierService {
         return supplierRepository.findAll(pageable);
     }
 
+    /**
+     * @param cursor - позиция после последней записи предыдущей страницы, null - первая страница
+     * @param limit  - размер страницы
+     */
+    public Slice<Supplier> findAll(PageCursor cursor, int limit) {
+        if (cursor == null) {
+            return supplierRepository.findAllByOrderByNameAscIdAsc(PageRequest.of(0, limit));
+        }
+        return supplierRepository.findAllAfter(cursor.key(), cursor.id(), PageRequest.of(0, limit));
+    }
+
     public void deleteSupplier(UUID id) {
         existsById(id);
         supplierRepository.deleteById(id);
@@ -0,0 +1,152 @@
+package edu.school21.storage;
+
+import edu.school21.models.EncodedImage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Хранение данных изображений в bytea таблицы image_data (images.storage.type=database)
+ */
+@Component
+@ConditionalOnProperty(name = "images.storage.type", havingValue = "database", matchIfMissing = true)
+public class DatabaseImageStorage implements ImageStorage {
+    private JdbcTemplate jdbcTemplate;
+    private int chunkSize;
+
+    public DatabaseImageStorage(JdbcTemplate jdbcTemplate,
+                                @Value("${images.streaming.chunk-size}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(String hash, String codec, byte[] data) {
+        jdbcTemplate.update("INSERT INTO image_data (hash, codec, data) VALUES (?, ?, ?) ON CONFLICT DO NOTHING",
+                hash, codec, data);
+    }
+
+    /**
+     * Файл передается драйверу потоком с известной длиной, и драйвер отправляет его в базу по частям
+     */
+    @Override
+    public void write(String hash, String codec, Path file) {
+        try (InputStream data = Files.newInputStream(file)) {
+            long length = Files.size(file);
+            jdbcTemplate.update("INSERT INTO image_data (hash, codec, data) VALUES (?, ?, ?) ON CONFLICT DO NOTHING",
+                    ps -> {
+                        ps.setString(1, hash);
+                        ps.setString(2, codec);
+                        ps.setBinaryStream(3, data, length);
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void writeAll(List<EncodedImage> images) {
+        jdbcTemplate.batchUpdate("INSERT INTO image_data (hash, codec, data) VALUES (?, ?, ?) ON CONFLICT DO NOTHING",
+                images, images.size(), (ps, image) -> {
+                    ps.setString(1, image.hash());
+                    ps.setString(2, image.codec());
+                    ps.setBytes(3, image.data());
+                });
+    }
+
+    /**
+     * Метод открывает поток сохраненного (сжатого) изображения, который читает данные из базы
+     * порциями по chunkSize байт, поэтому в памяти одновременно находится не больше одной порции
+     */
+    @Override
+    public InputStream open(String hash, String codec, long offset, long length) {
+        return new ChunkedInputStream(hash, codec, offset, offset + length);
+    }
+
+    @Override
+    public void delete(String hash, String codec) {
+        jdbcTemplate.update("DELETE FROM image_data WHERE hash = ? AND codec = ?", hash, codec);
+    }
+
+    private byte[] readChunk(String hash, String codec, long offset, int length) {
+        // substring для bytea в PostgreSQL индексируется с 1
+        List<byte[]> chunks = jdbcTemplate.queryForList(
+                "SELECT substring(data FROM ? FOR ?) FROM image_data WHERE hash = ? AND codec = ?",
+                byte[].class, (int) offset + 1, length, hash, codec);
+        return chunks.isEmpty() ? null : chunks.get(0);
+    }
+
+    private class ChunkedInputStream extends InputStream {
+        private final String hash;
+        private final String codec;
+        private final long end;
+        private long offset;
+        private byte[] chunk = new byte[0];
+        private int position;
+
+        ChunkedInputStream(String hash, String codec, long offset, long end) {
+            this.hash = hash;
+            this.codec = codec;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        /**
+         * Порции читаются отдельными запросами, поэтому данные могут быть удалены между ними. Заголовок
+         * Content-Length к этому моменту уже отправлен, и короткая порция прерывает поток исключением,
+         * чтобы клиент получил оборванный ответ, а не усеченное тело под видом успешного
+         */
+        private boolean fill() throws IOException {
+            if (position < chunk.length) {
+                return true;
+            }
+            if (offset >= end) {
+                return false;
+            }
+            int size = (int) Math.min(chunkSize, end - offset);
+            chunk = readChunk(hash, codec, offset, size);
+            if (chunk == null || chunk.length < size) {
+                throw new IOException("Image data with hash: %s and codec: %s ended at %d of %d bytes"
+                        .formatted(hash, codec, offset + (chunk == null ? 0 : chunk.length), end));
+            }
+            offset += chunk.length;
+            position = 0;
+            return true;
+        }
+    }
+}
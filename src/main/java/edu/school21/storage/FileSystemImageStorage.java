@@ -0,0 +1,105 @@
+package edu.school21.storage;
+
+import edu.school21.utils.ByteBufferInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Хранение данных изображений в файлах локального каталога (images.storage.type=file).
+ * Файл называется по хешу и кодеку и раскладывается по подкаталогам из первых двух символов хеша.
+ * Чтение идет через отображение файла в память, а ImageResponseUtils может отдать файл в сокет через sendfile
+ */
+@Component
+@ConditionalOnProperty(name = "images.storage.type", havingValue = "file")
+public class FileSystemImageStorage implements ImageStorage {
+    private Path directory;
+
+    public FileSystemImageStorage(@Value("${images.storage.directory}") String directory) {
+        this.directory = Path.of(directory).toAbsolutePath();
+    }
+
+    /**
+     * Данные пишутся во временный файл и атомарно переименовываются, поэтому читатель никогда не видит
+     * частично записанный файл
+     */
+    @Override
+    public void write(String hash, String codec, byte[] data) {
+        writeAtomically(hash, codec, temp -> Files.write(temp, data));
+    }
+
+    @Override
+    public void write(String hash, String codec, Path source) {
+        writeAtomically(hash, codec, temp -> Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    /**
+     * Запрошенная часть файла отображается в память, данные копируются из page cache без промежуточных
+     * буферов в куче. Отображение остается действительным и после удаления файла
+     */
+    @Override
+    public InputStream open(String hash, String codec, long offset, long length) {
+        try (FileChannel channel = FileChannel.open(resolve(hash, codec), StandardOpenOption.READ)) {
+            long count = Math.min(length, channel.size() - offset);
+            if (count <= 0) {
+                return InputStream.nullInputStream();
+            }
+            return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, offset, count));
+        } catch (NoSuchFileException e) {
+            return InputStream.nullInputStream();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void delete(String hash, String codec) {
+        try {
+            Files.deleteIfExists(resolve(hash, codec));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Optional<Path> findFile(String hash, String codec) {
+        Path file = resolve(hash, codec);
+        return Files.isRegularFile(file) ? Optional.of(file) : Optional.empty();
+    }
+
+    private void writeAtomically(String hash, String codec, TempFileWriter writer) {
+        Path file = resolve(hash, codec);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                writer.write(temp);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path resolve(String hash, String codec) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash + "." + codec);
+    }
+
+    @FunctionalInterface
+    private interface TempFileWriter {
+        void write(Path temp) throws IOException;
+    }
+}
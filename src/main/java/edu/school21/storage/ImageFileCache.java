@@ -0,0 +1,112 @@
+package edu.school21.storage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Каталог готовых к отдаче файлов изображений, общий с nginx (images.accel-redirect.enabled=true).
+ * Сервер только находит изображение и записывает файл, если его еще нет, а ответ с заголовком X-Accel-Redirect
+ * указывает nginx, какой файл отдать клиенту через sendfile. Файл называется по хешу содержимого,
+ * поэтому никогда не устаревает и удаляется вместе с содержимым
+ */
+@Component
+public class ImageFileCache {
+    private static final String DEFLATE_SUFFIX = ".deflate";
+    // рабочие процессы nginx запущены от другого пользователя, поэтому каталоги и файлы должны быть доступны всем
+    // на чтение (Files.createTempFile создает файлы с правами rw-------)
+    private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwxr-xr-x");
+    private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    private boolean enabled;
+    private Path directory;
+    private String location;
+
+    public ImageFileCache(@Value("${images.accel-redirect.enabled}") boolean enabled,
+                          @Value("${images.accel-redirect.directory}") String directory,
+                          @Value("${images.accel-redirect.location}") String location) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory).toAbsolutePath();
+        this.location = location.endsWith("/") ? location : location + "/";
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Метод записывает представление изображения в каталог, если его там еще нет. Данные пишутся во временный
+     * файл и атомарно переименовываются, поэтому nginx никогда не отдает частично записанный файл
+     *
+     * @param hash    - хеш содержимого изображения
+     * @param deflate - сохраняется ли представление, сжатое deflate
+     * @param length  - размер представления в байтах
+     * @param data    - источник данных представления, открывается только если файла нет
+     * @return URI файла во внутренней location nginx для заголовка X-Accel-Redirect
+     */
+    public String prepare(String hash, boolean deflate, long length, Supplier<InputStream> data) {
+        String name = hash.substring(0, 2) + "/" + hash + (deflate ? DEFLATE_SUFFIX : "");
+        Path file = directory.resolve(name);
+        if (!Files.isRegularFile(file)) {
+            try {
+                createDirectory(directory);
+                createDirectory(file.getParent());
+                Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                try (InputStream image = data.get()) {
+                    // неполные данные (содержимое удалено во время чтения) не должны остаться в каталоге навсегда
+                    if (Files.copy(image, temp, StandardCopyOption.REPLACE_EXISTING) != length) {
+                        throw new IOException("Image content with hash: %s changed while caching".formatted(hash));
+                    }
+                    if (POSIX) {
+                        Files.setPosixFilePermissions(temp, FILE_PERMISSIONS);
+                    }
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return location + name;
+    }
+
+    /**
+     * Метод создает каталог и явно выставляет права, так как права при создании ограничиваются umask процесса
+     */
+    private static void createDirectory(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            Files.createDirectories(path);
+            if (POSIX) {
+                Files.setPosixFilePermissions(path, DIRECTORY_PERMISSIONS);
+            }
+        }
+    }
+
+    /**
+     * @param hash - хеш удаленного содержимого изображения
+     */
+    public void delete(String hash) {
+        if (!enabled) {
+            return;
+        }
+        Path parent = directory.resolve(hash.substring(0, 2));
+        try {
+            Files.deleteIfExists(parent.resolve(hash));
+            Files.deleteIfExists(parent.resolve(hash + DEFLATE_SUFFIX));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
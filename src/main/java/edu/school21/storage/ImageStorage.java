@@ -0,0 +1,69 @@
+package edu.school21.storage;
+
+import edu.school21.models.EncodedImage;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Хранилище данных изображений. Данные адресуются парой (хеш исходного содержимого, кодек),
+ * поэтому пересжатая копия записывается рядом со старой, а метаданные в image_blobs переключаются на нее отдельно.
+ * Реализация выбирается настройкой images.storage.type
+ */
+public interface ImageStorage {
+    /**
+     * Метод сохраняет данные. Повторная запись тех же данных допустима и ничего не меняет
+     *
+     * @param hash  - хеш исходного содержимого изображения
+     * @param codec - идентификатор кодека, которым закодированы данные
+     * @param data  - сохраняемые данные
+     */
+    void write(String hash, String codec, byte[] data);
+
+    /**
+     * Метод сохраняет данные из файла, читая его потоком, поэтому данные целиком в кучу не загружаются
+     *
+     * @param hash  - хеш исходного содержимого изображения
+     * @param codec - идентификатор кодека, которым закодированы данные
+     * @param file  - файл с сохраняемыми данными
+     */
+    void write(String hash, String codec, Path file);
+
+    /**
+     * Метод сохраняет данные нескольких изображений
+     *
+     * @param images - подготовленные к записи изображения
+     */
+    default void writeAll(List<EncodedImage> images) {
+        images.forEach(image -> write(image.hash(), image.codec(), image.data()));
+    }
+
+    /**
+     * Метод открывает поток части сохраненных данных. Если данные удалены во время чтения,
+     * поток заканчивается раньше, а не возвращает чужие байты
+     *
+     * @param hash   - хеш исходного содержимого изображения
+     * @param codec  - идентификатор кодека, которым закодированы данные
+     * @param offset - смещение первого читаемого байта
+     * @param length - количество читаемых байт
+     * @return InputStream сохраненных данных
+     */
+    InputStream open(String hash, String codec, long offset, long length);
+
+    /**
+     * @param hash  - хеш исходного содержимого изображения
+     * @param codec - идентификатор кодека, которым закодированы данные
+     */
+    void delete(String hash, String codec);
+
+    /**
+     * @param hash  - хеш исходного содержимого изображения
+     * @param codec - идентификатор кодека, которым закодированы данные
+     * @return путь к файлу с данными, если хранилище держит их в локальной файловой системе
+     */
+    default Optional<Path> findFile(String hash, String codec) {
+        return Optional.empty();
+    }
+}
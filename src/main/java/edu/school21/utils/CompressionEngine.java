@@ -0,0 +1,223 @@
+package edu.school21.utils;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Пул экземпляров Deflater/Inflater для сжатия изображений. Экземпляры переиспользуются между запросами
+ * (Deflater вместе с буфером сжатых данных не больше maxRetainedBufferSize), а нативная память zlib
+ * освобождается явно через end() при переполнении пула и при остановке приложения
+ */
+@Component
+public class CompressionEngine {
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    private final BlockingQueue<PooledDeflater> deflaters;
+    private final BlockingQueue<Inflater> inflaters;
+    private final int maxRetainedBufferSize;
+
+    public CompressionEngine(@Value("${images.compression.pool-size}") int poolSize,
+                             @Value("${images.compression.max-retained-buffer-size}") int maxRetainedBufferSize) {
+        this.deflaters = new ArrayBlockingQueue<>(poolSize);
+        this.inflaters = new ArrayBlockingQueue<>(poolSize);
+        this.maxRetainedBufferSize = maxRetainedBufferSize;
+    }
+
+    /**
+     * Метод сжимает данные в формате zlib. Результат пишется в буфер, закрепленный за экземпляром Deflater,
+     * и копируется в массив точного размера
+     *
+     * @param data  - исходные данные
+     * @param level - уровень сжатия Deflater
+     * @return сжатые данные
+     */
+    public byte[] compress(byte[] data, int level) {
+        PooledDeflater pooled = borrowDeflater();
+        try {
+            Deflater deflater = pooled.deflater;
+            deflater.setLevel(level);
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = pooled.buffer(deflateBound(data.length));
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == buffer.length) {
+                    buffer = pooled.grow();
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            return Arrays.copyOf(buffer, size);
+        } finally {
+            releaseDeflater(pooled);
+        }
+    }
+
+    /**
+     * Метод оборачивает поток в сжимающий поток на экземпляре Deflater из пула. Закрытие потока завершает
+     * сжатие, закрывает out и возвращает Deflater в пул
+     *
+     * @param out   - поток для сжатых данных
+     * @param level - уровень сжатия Deflater
+     * @return OutputStream исходных данных
+     */
+    public OutputStream deflate(OutputStream out, int level) {
+        PooledDeflater pooled = borrowDeflater();
+        pooled.deflater.setLevel(level);
+        return new PooledDeflaterOutputStream(out, pooled);
+    }
+
+    /**
+     * Метод оборачивает поток сжатых данных в распаковывающий поток на экземпляре Inflater из пула.
+     * Inflater возвращается в пул при закрытии потока
+     *
+     * @param in - поток сжатых данных
+     * @return InputStream распакованных данных
+     */
+    public InputStream inflate(InputStream in) {
+        return new PooledInflaterInputStream(in, borrowInflater());
+    }
+
+    @PreDestroy
+    public void close() {
+        PooledDeflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null) {
+            inflater.end();
+        }
+    }
+
+    private PooledDeflater borrowDeflater() {
+        PooledDeflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new PooledDeflater();
+    }
+
+    private void releaseDeflater(PooledDeflater pooled) {
+        pooled.deflater.reset();
+        pooled.trim(maxRetainedBufferSize);
+        if (!deflaters.offer(pooled)) {
+            pooled.deflater.end();
+        }
+    }
+
+    private Inflater borrowInflater() {
+        Inflater inflater = inflaters.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return суммарный размер буферов, закрепленных за Deflater в пуле (для тестов)
+     */
+    long retainedBufferSize() {
+        return deflaters.stream()
+                .mapToLong(pooled -> pooled.buffer.length)
+                .sum();
+    }
+
+    /**
+     * Верхняя граница размера сжатых данных zlib (аналог deflateBound из zlib)
+     */
+    private static int deflateBound(int length) {
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6;
+    }
+
+    private static class PooledDeflater {
+        private final Deflater deflater = new Deflater();
+        private byte[] buffer = new byte[0];
+
+        private byte[] buffer(int size) {
+            if (buffer.length < size) {
+                buffer = new byte[size];
+            }
+            return buffer;
+        }
+
+        private byte[] grow() {
+            buffer = Arrays.copyOf(buffer, Math.max(STREAM_BUFFER_SIZE, buffer.length * 2));
+            return buffer;
+        }
+
+        private void trim(int maxSize) {
+            if (buffer.length > maxSize) {
+                buffer = new byte[0];
+            }
+        }
+    }
+
+    /**
+     * Сжимающий поток, который при закрытии возвращает свой Deflater в пул
+     */
+    class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private final PooledDeflater pooled;
+        private boolean released;
+
+        private PooledDeflaterOutputStream(OutputStream out, PooledDeflater pooled) {
+            super(out, pooled.deflater, STREAM_BUFFER_SIZE);
+            this.pooled = pooled;
+        }
+
+        Deflater getDeflater() {
+            return def;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    releaseDeflater(pooled);
+                }
+            }
+        }
+    }
+
+    /**
+     * Распаковывающий поток, который при закрытии возвращает свой Inflater в пул. Буфер потока выделяется
+     * конструктором InflaterInputStream и в пуле не хранится
+     */
+    class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean released;
+
+        private PooledInflaterInputStream(InputStream in, Inflater inflater) {
+            super(in, inflater, STREAM_BUFFER_SIZE);
+        }
+
+        Inflater getInflater() {
+            return inf;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    releaseInflater(inf);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package edu.school21.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU-кэш распакованных изображений с ограничением по суммарному размеру данных, а не по числу записей.
+ * Ключ - хеш исходного содержимого, поэтому запись не устаревает при пересжатии и удаляется только вместе
+ * с содержимым. Данные хранятся в буферах вне кучи и не просматриваются сборщиком мусора
+ */
+@Component
+public class DecompressedImageCache {
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final long maxSize;
+    private final long maxEntrySize;
+    private long size;
+
+    public DecompressedImageCache(@Value("${images.decompressed-cache.max-size}") long maxSize,
+                                  @Value("${images.decompressed-cache.max-entry-size}") long maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = Math.min(maxEntrySize, maxSize);
+    }
+
+    /**
+     * @param hash - хеш содержимого изображения
+     * @return поток распакованного изображения или null, если его нет в кэше
+     */
+    public InputStream open(String hash) {
+        ByteBuffer data;
+        synchronized (this) {
+            data = entries.get(hash);
+        }
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ByteBufferInputStream(data.duplicate());
+    }
+
+    /**
+     * @param size - размер распакованного изображения в байтах
+     * @return true, если изображение такого размера может быть помещено в кэш
+     */
+    public boolean isCacheable(long size) {
+        return size <= maxEntrySize;
+    }
+
+    /**
+     * Метод помещает изображение в кэш, вытесняя давно не запрошенные записи, пока данные не уместятся в лимит
+     *
+     * @param hash - хеш содержимого изображения
+     * @param data - распакованное изображение
+     */
+    public void put(String hash, byte[] data) {
+        if (!isCacheable(data.length)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length)
+                .put(data)
+                .flip()
+                .asReadOnlyBuffer();
+        synchronized (this) {
+            ByteBuffer previous = entries.put(hash, buffer);
+            if (previous != null) {
+                size -= previous.capacity();
+            }
+            size += buffer.capacity();
+            Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().getValue().capacity();
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param hash - хеш удаленного содержимого изображения
+     */
+    public synchronized void invalidate(String hash) {
+        ByteBuffer previous = entries.remove(hash);
+        if (previous != null) {
+            size -= previous.capacity();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,297 @@
+package edu.school21.utils;
+
+import edu.school21.codecs.ImageCodec;
+import edu.school21.codecs.ImageCodecRegistry;
+import edu.school21.models.ImageMetadata;
+import edu.school21.services.ImageService;
+import edu.school21.storage.ImageFileCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.EOFException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Component
+public class ImageResponseUtils {
+    private static final String DEFLATE = "deflate";
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    private static final String X_ACCEL_REDIRECT = "X-Accel-Redirect";
+    private ImageService imageService;
+    private ImageCodecRegistry imageCodecRegistry;
+    private ImageFileCache imageFileCache;
+    private CacheControl cacheControl;
+
+    public ImageResponseUtils(ImageService imageService,
+                              ImageCodecRegistry imageCodecRegistry,
+                              ImageFileCache imageFileCache,
+                              @Value("${images.cache.max-age}") long cacheMaxAge) {
+        this.imageService = imageService;
+        this.imageCodecRegistry = imageCodecRegistry;
+        this.imageFileCache = imageFileCache;
+        this.cacheControl = CacheControl.maxAge(Duration.ofSeconds(cacheMaxAge)).cachePublic();
+    }
+
+    /**
+     * Метод формирует потоковый ответ с изображением. Если клиент принимает deflate, сохраненные сжатые
+     * данные отдаются как есть с заголовком Content-Encoding, иначе изображение распаковывается на сервере.
+     * Изображения, сохраненные без сжатия, всегда отдаются как есть с определенным при загрузке Content-Type,
+     * остальные кодеки распаковываются на сервере.
+     * В качестве ETag используется хеш содержимого, поэтому на If-None-Match отвечаем 304 без чтения данных.
+     * Запрос с Range (и совпадающим If-Range) получает 206 только с запрошенной частью выбранного представления
+     *
+     * Если указаны width или height, отдается уменьшенная копия изображения (см. ImageService.findVariant)
+     *
+     * @param imageId    - идентификатор изображения
+     * @param width      - максимальная ширина или null
+     * @param height     - максимальная высота или null
+     * @param webRequest - текущий запрос
+     * @return ResponseEntity с потоковым телом ответа
+     */
+    public ResponseEntity<StreamingResponseBody> toResponse(UUID imageId, Integer width, Integer height,
+                                                            WebRequest webRequest) {
+        return toResponse(imageService.findMetadataById(imageId), width, height, webRequest);
+    }
+
+    /**
+     * Метод формирует потоковый ответ с изображением или его уменьшенной копией по уже загруженным сведениям
+     *
+     * @param content    - сведения об исходном изображении
+     * @param width      - максимальная ширина или null
+     * @param height     - максимальная высота или null
+     * @param webRequest - текущий запрос
+     * @return ResponseEntity с потоковым телом ответа
+     */
+    public ResponseEntity<StreamingResponseBody> toResponse(ImageMetadata content, Integer width, Integer height,
+                                                            WebRequest webRequest) {
+        return toResponse(imageService.findVariant(content, width, height), webRequest);
+    }
+
+    /**
+     * Метод формирует потоковый ответ с изображением по уже загруженным сведениям о нем
+     *
+     * @param content    - сведения об изображении
+     * @param webRequest - текущий запрос
+     * @return ResponseEntity с потоковым телом ответа
+     */
+    public ResponseEntity<StreamingResponseBody> toResponse(ImageMetadata content, WebRequest webRequest) {
+        boolean deflateAccepted = isEncodingAccepted(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), DEFLATE);
+        ImageCodec codec = imageCodecRegistry.get(content.getCodec());
+        boolean deflate = deflateAccepted && DEFLATE.equals(codec.getContentEncoding());
+        String eTag = toETag(content.getHash(), deflate);
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .cacheControl(cacheControl)
+                    .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+        long length = deflate ? content.getStoredLength() : content.getSize();
+        if (imageFileCache.isEnabled()) {
+            return toAccelRedirect(content, codec, deflate, length, eTag);
+        }
+        long start = 0;
+        long count = length;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        HttpRange range = resolveRange(webRequest, eTag);
+        if (range != null) {
+            try {
+                start = range.getRangeStart(length);
+                count = range.getRangeEnd(length) - start + 1;
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */%d".formatted(length))
+                        .build();
+            }
+            response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .header(HttpHeaders.CONTENT_RANGE,
+                            "bytes %d-%d/%d".formatted(start, start + count - 1, length));
+        }
+        response.contentType(MediaType.parseMediaType(content.getMediaType()))
+                .contentLength(count)
+                .eTag(eTag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (deflate) {
+            response.header(HttpHeaders.CONTENT_ENCODING, DEFLATE);
+        }
+        if (deflate || codec.isIdentity()) {
+            // диапазон сохраненного представления отдается напрямую, без распаковки
+            if (sendFile(content, start, count, webRequest)) {
+                return response.build();
+            }
+            return response.body(toBody(imageService.openStoredStream(content, start, count), 0, count));
+        }
+        // для диапазона при промахе кэша распаковывается только префикс изображения до конца диапазона
+        InputStream image = range != null
+                ? imageService.openImagePrefixStream(content)
+                : imageService.openImageStream(content);
+        return response.body(toBody(image, start, count));
+    }
+
+    /**
+     * Метод записывает выбранное представление в каталог ImageFileCache и отвечает пустым телом с заголовком
+     * X-Accel-Redirect: nginx сам отдает файл через sendfile и обрабатывает Range, а поток сервера
+     * занят только поиском изображения. ETag и Content-Encoding nginx берет из этого ответа
+     *
+     * @param content - сведения об изображении
+     * @param codec   - кодек сохраненных данных
+     * @param deflate - отдаются ли сохраненные данные с Content-Encoding: deflate
+     * @param length  - размер отдаваемого представления
+     * @param eTag    - ETag отдаваемого представления
+     * @return ResponseEntity без тела
+     */
+    private ResponseEntity<StreamingResponseBody> toAccelRedirect(ImageMetadata content, ImageCodec codec,
+                                                                  boolean deflate, long length, String eTag) {
+        String uri = imageFileCache.prepare(content.getHash(), deflate, length, () -> deflate || codec.isIdentity()
+                ? imageService.openStoredStream(content, 0, length)
+                : imageService.openImageStream(content));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(content.getMediaType()))
+                .eTag(eTag)
+                .cacheControl(cacheControl)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .header(X_ACCEL_REDIRECT, uri);
+        if (deflate) {
+            response.header(HttpHeaders.CONTENT_ENCODING, DEFLATE);
+        }
+        return response.build();
+    }
+
+    /**
+     * Метод передает отдачу файла хранилища контейнеру Tomcat: при пустом теле ответа Tomcat сам отправляет
+     * указанный диапазон файла в сокет через sendfile, минуя JVM
+     *
+     * @param content    - сведения об изображении
+     * @param start      - смещение первого байта в сохраненных данных
+     * @param count      - количество отдаваемых байт
+     * @param webRequest - текущий запрос
+     * @return true, если данные хранятся в файле и контейнер поддерживает sendfile
+     */
+    private boolean sendFile(ImageMetadata content, long start, long count, WebRequest webRequest) {
+        if (!Boolean.TRUE.equals(webRequest.getAttribute(SENDFILE_SUPPORT, RequestAttributes.SCOPE_REQUEST))) {
+            return false;
+        }
+        Optional<Path> file = imageService.findStoredFile(content);
+        if (file.isEmpty()) {
+            return false;
+        }
+        webRequest.setAttribute(SENDFILE_FILENAME, file.get().toString(), RequestAttributes.SCOPE_REQUEST);
+        webRequest.setAttribute(SENDFILE_START, start, RequestAttributes.SCOPE_REQUEST);
+        webRequest.setAttribute(SENDFILE_END, start + count, RequestAttributes.SCOPE_REQUEST);
+        return true;
+    }
+
+    /**
+     * Метод проверяет, разрешает ли заголовок Accept-Encoding указанное кодирование с учетом q-значений
+     *
+     * @param acceptEncoding - значение заголовка Accept-Encoding
+     * @param encoding       - проверяемое кодирование
+     * @return true, если кодирование разрешено
+     */
+    public static boolean isEncodingAccepted(String acceptEncoding, String encoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return false;
+        }
+        Double encodingQuality = null;
+        Double wildcardQuality = null;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.split(";");
+            String coding = parts[0].trim();
+            double quality = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0.0;
+                    }
+                }
+            }
+            if (coding.equalsIgnoreCase(encoding)) {
+                encodingQuality = quality;
+            } else if (coding.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+        if (encodingQuality != null) {
+            return encodingQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    /**
+     * Метод формирует строгий ETag из хеша содержимого. Сжатое и несжатое представления
+     * различаются побайтно, поэтому получают разные ETag. Суффикс зависит от фактически отдаваемого
+     * представления, а не только от Accept-Encoding, так как фоновое пересжатие меняет кодек записи
+     *
+     * @param hash    - хеш содержимого изображения
+     * @param deflate - отдаются ли сохраненные данные с Content-Encoding: deflate
+     * @return ETag в кавычках
+     */
+    private String toETag(String hash, boolean deflate) {
+        return "\"" + hash + (deflate ? "-" + DEFLATE : "") + "\"";
+    }
+
+    /**
+     * Метод возвращает единственный диапазон из заголовка Range. Несколько диапазонов, некорректный заголовок
+     * или If-Range с другим ETag приводят к отдаче изображения целиком
+     *
+     * @param webRequest - текущий запрос
+     * @param eTag       - ETag отдаваемого представления
+     * @return диапазон или null, если отдается все изображение
+     */
+    private HttpRange resolveRange(WebRequest webRequest, String eTag) {
+        String rangeHeader = webRequest.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.trim().equals(eTag)) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(rangeHeader);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private StreamingResponseBody toBody(InputStream image, long skip, long length) {
+        return outputStream -> {
+            try (image) {
+                image.skipNBytes(skip);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length;
+                while (remaining > 0) {
+                    int count = image.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    // Content-Length уже отправлен, поэтому недостающие данные обрывают ответ
+                    if (count < 0) {
+                        throw new EOFException("Image ended %d bytes before Content-Length".formatted(remaining));
+                    }
+                    outputStream.write(buffer, 0, count);
+                    remaining -= count;
+                }
+            }
+        };
+    }
+}
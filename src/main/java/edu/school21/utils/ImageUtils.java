@@ -1,44 +1,210 @@
 package edu.school21.utils;
 
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
 
 @Component
 public class ImageUtils {
-    public byte[] compressImage(byte[] data) {
-        Deflater deflater = new Deflater();
-        deflater.setLevel(Deflater.BEST_COMPRESSION);
-        deflater.setInput(data);
-        deflater.finish();
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-        byte[] tmp = new byte[4 * 1024];
-        while (!deflater.finished()) {
-            int size = deflater.deflate(tmp);
-            outputStream.write(tmp, 0, size);
-        }
+    public static final String IMAGE_WEBP_VALUE = "image/webp";
+    public static final String IMAGE_AVIF_VALUE = "image/avif";
+    private static final byte[] JPEG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] GIF_SIGNATURE = "GIF8".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RIFF_SIGNATURE = "RIFF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WEBP_SIGNATURE = "WEBP".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AVIF_SIGNATURE = "ftypavif".getBytes(StandardCharsets.US_ASCII);
+    // сигнатуры всех распознаваемых форматов помещаются в первые 12 байт
+    private static final int SIGNATURE_LENGTH = 12;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final Map<String, String> RESIZABLE_FORMATS = Map.of(
+            MediaType.IMAGE_JPEG_VALUE, "jpeg",
+            MediaType.IMAGE_PNG_VALUE, "png",
+            MediaType.IMAGE_GIF_VALUE, "gif");
+    private static final Set<String> COMPRESSED_MEDIA_TYPES = Set.of(
+            MediaType.IMAGE_JPEG_VALUE,
+            MediaType.IMAGE_PNG_VALUE,
+            MediaType.IMAGE_GIF_VALUE,
+            IMAGE_WEBP_VALUE,
+            IMAGE_AVIF_VALUE);
+
+    /**
+     * Метод вычисляет SHA-256 хеш исходных данных изображения в шестнадцатеричном виде
+     *
+     * @param data - исходные данные изображения
+     * @return хеш содержимого
+     */
+    public String hash(byte[] data) {
         try {
-            outputStream.close();
-        } catch (Exception ignored) {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return outputStream.toByteArray();
     }
 
-    public byte[] decompressImage(byte[] data) {
-        Inflater inflater = new Inflater();
-        inflater.setInput(data);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length);
-        byte[] tmp = new byte[4 * 1024];
-        try {
-            while (!inflater.finished()) {
-                int count = inflater.inflate(tmp);
-                outputStream.write(tmp, 0, count);
+    /**
+     * Метод вычисляет хеш содержимого файла (см. hash(byte[])), читая его потоком
+     *
+     * @param file - файл с исходными данными изображения
+     * @return хеш содержимого
+     */
+    public String hash(Path file) throws IOException {
+        try (InputStream data = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int count = data.read(buffer); count != -1; count = data.read(buffer)) {
+                digest.update(buffer, 0, count);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Метод уменьшает изображение средствами JDK так, чтобы оно поместилось в прямоугольник maxWidth x maxHeight
+     * с сохранением пропорций. Размеры читаются из заголовка, поэтому изображение, которое уже помещается
+     * или больше maxPixels, не декодируется. Результат кодируется в исходном формате
+     *
+     * @param image     - поток исходного изображения
+     * @param mediaType - формат исходного изображения
+     * @param maxWidth  - максимальная ширина, 0 - без ограничения
+     * @param maxHeight - максимальная высота, 0 - без ограничения
+     * @param maxPixels - максимальное количество пикселей декодируемого изображения
+     * @return уменьшенное изображение или null, если формат не поддерживается JDK, изображение слишком большое
+     * или уменьшать не нужно
+     */
+    public byte[] resize(InputStream image, String mediaType, int maxWidth, int maxHeight, long maxPixels)
+            throws IOException {
+        String format = RESIZABLE_FORMATS.get(mediaType);
+        if (format == null) {
+            return null;
+        }
+        try (ImageInputStream input = ImageIO.createImageInputStream(image)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = Math.min(maxWidth > 0 ? (double) maxWidth / width : 1,
+                        maxHeight > 0 ? (double) maxHeight / height : 1);
+                if (scale >= 1 || (long) width * height > maxPixels) {
+                    return null;
+                }
+                BufferedImage resized = scale(reader.read(0),
+                        Math.max(1, (int) Math.round(width * scale)),
+                        Math.max(1, (int) Math.round(height * scale)),
+                        format.equals("jpeg") ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                ImageIO.write(resized, format, outputStream);
+                return outputStream.toByteArray();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Метод определяет формат изображения по сигнатуре в начале данных
+     *
+     * @param data - исходные данные изображения
+     * @return media type изображения или application/octet-stream, если формат не распознан
+     */
+    public String detectMediaType(byte[] data) {
+        if (startsWith(data, 0, JPEG_SIGNATURE)) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (startsWith(data, 0, PNG_SIGNATURE)) {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        if (startsWith(data, 0, GIF_SIGNATURE)) {
+            return MediaType.IMAGE_GIF_VALUE;
+        }
+        if (startsWith(data, 0, RIFF_SIGNATURE) && startsWith(data, 8, WEBP_SIGNATURE)) {
+            return IMAGE_WEBP_VALUE;
+        }
+        if (startsWith(data, 4, AVIF_SIGNATURE)) {
+            return IMAGE_AVIF_VALUE;
+        }
+        return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    /**
+     * Метод определяет формат изображения в файле по сигнатуре, читая только начало файла
+     *
+     * @param file - файл с исходными данными изображения
+     * @return media type изображения или application/octet-stream, если формат не распознан
+     */
+    public String detectMediaType(Path file) throws IOException {
+        try (InputStream data = Files.newInputStream(file)) {
+            return detectMediaType(data.readNBytes(SIGNATURE_LENGTH));
+        }
+    }
+
+    /**
+     * Метод проверяет, сжат ли формат изображения энтропийным кодированием, то есть бесполезно ли сжимать его повторно.
+     * Такие изображения сохраняются кодеком IdentityImageCodec
+     *
+     * @param mediaType - media type изображения
+     * @return true, если формат уже сжат
+     */
+    public boolean isCompressedFormat(String mediaType) {
+        return COMPRESSED_MEDIA_TYPES.contains(mediaType);
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] signature) {
+        if (data.length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (data[offset + i] != signature[i]) {
+                return false;
             }
-            outputStream.close();
-        } catch (Exception ignored) {
         }
-        return outputStream.toByteArray();
+        return true;
+    }
+
+    /**
+     * Уменьшение выполняется шагами не больше чем вдвое: билинейная интерполяция за один большой шаг
+     * теряет детали и дает заметную ступенчатость
+     */
+    private static BufferedImage scale(BufferedImage source, int width, int height, int type) {
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, type);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,20 @@
 package edu.school21.utils;
 
 import edu.school21.dto.ClientDto;
+import edu.school21.dto.ImageCacheStatsDto;
+import edu.school21.dto.ImageUploadJobDto;
 import edu.school21.dto.ProductDto;
+import edu.school21.dto.ReservationLineDto;
+import edu.school21.dto.StockHoldDto;
+import edu.school21.dto.StockShortfallDto;
 import edu.school21.dto.SupplierDto;
 import edu.school21.models.Category;
 import edu.school21.models.Client;
+import edu.school21.models.ImageUploadJob;
 import edu.school21.models.Product;
+import edu.school21.models.ReservationLine;
+import edu.school21.models.StockHold;
+import edu.school21.models.StockShortfall;
 import edu.school21.models.Supplier;
 import org.modelmapper.ModelMapper;
 import org.springframework.stereotype.Component;
@@ -42,9 +51,38 @@ public class MappingUtils {
         return product;
     }
 
+    public ImageUploadJobDto convertToDto(ImageUploadJob imageUploadJob) {
+        ImageUploadJobDto imageUploadJobDto = modelMapper.map(imageUploadJob, ImageUploadJobDto.class);
+        return imageUploadJobDto;
+    }
+
+    public ImageCacheStatsDto convertToDto(DecompressedImageCache decompressedImageCache) {
+        return new ImageCacheStatsDto(decompressedImageCache.getHits(), decompressedImageCache.getMisses(),
+                decompressedImageCache.getEvictions(), decompressedImageCache.getSize(),
+                decompressedImageCache.getEntryCount());
+    }
+
+    public ReservationLine convertToEntity(ReservationLineDto reservationLineDto) {
+        return new ReservationLine(reservationLineDto.getProductId(), reservationLineDto.getAmount());
+    }
+
+    public StockHoldDto convertToDto(StockHold stockHold) {
+        return new StockHoldDto(stockHold.id(), stockHold.lines().stream()
+                .map(line -> new ReservationLineDto(line.productId(), line.amount()))
+                .toList(), null, stockHold.expiresAt());
+    }
+
+    public StockShortfallDto convertToDto(StockShortfall stockShortfall) {
+        return new StockShortfallDto(stockShortfall.productId(), stockShortfall.requested(),
+                stockShortfall.available());
+    }
+
     public ProductDto convertToDto(Product product) {
         ProductDto productDto = modelMapper.map(product, ProductDto.class);
         productDto.setCategory(product.getCategory().getName());
+        if (product.getDetachedStock() != null) {
+            productDto.setAvailableStock(product.getAvailableStock() + product.getDetachedStock());
+        }
         return productDto;
     }
 }
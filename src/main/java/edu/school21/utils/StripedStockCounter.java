@@ -0,0 +1,95 @@
+package edu.school21.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Остаток товара, разделенный на несколько независимых ячеек. Поток списывает из случайной ячейки через CAS,
+ * поэтому параллельные покупатели одного товара почти не конкурируют за одну переменную.
+ * Ячейки разнесены по разным строкам кэша процессора. Остаток никогда не становится отрицательным
+ */
+public class StripedStockCounter {
+    /**
+     * Количество int в 64-байтной строке кэша
+     */
+    private static final int PADDING = 16;
+    private final AtomicIntegerArray cells;
+    private final int stripes;
+
+    public StripedStockCounter(int stock, int stripes) {
+        this.stripes = stripes;
+        this.cells = new AtomicIntegerArray(stripes * PADDING);
+        for (int i = 0; i < stripes; i++) {
+            cells.set(i * PADDING, stock / stripes + (i < stock % stripes ? 1 : 0));
+        }
+    }
+
+    /**
+     * Метод списывает количество из одной ячейки, в которой его достаточно. Если остаток раздроблен
+     * по ячейкам, списание собирается из нескольких ячеек под блокировкой, чтобы два таких списания
+     * не забрали друг у друга части и оба не завершились неудачей
+     *
+     * @param amount - списываемое количество
+     * @return false, если суммарного остатка недостаточно
+     */
+    public boolean tryTake(int amount) {
+        if (amount <= 0) {
+            return true;
+        }
+        int start = ThreadLocalRandom.current().nextInt(stripes);
+        for (int i = 0; i < stripes; i++) {
+            int index = ((start + i) % stripes) * PADDING;
+            int value;
+            while ((value = cells.get(index)) >= amount) {
+                if (cells.compareAndSet(index, value, value - amount)) {
+                    return true;
+                }
+            }
+        }
+        return tryTakeFragmented(amount);
+    }
+
+    /**
+     * @param amount - возвращаемое количество
+     */
+    public void add(int amount) {
+        cells.addAndGet(ThreadLocalRandom.current().nextInt(stripes) * PADDING, amount);
+    }
+
+    /**
+     * @return сумма ячеек. При параллельных списаниях значение соответствует одному из недавних состояний
+     */
+    public int sum() {
+        int sum = 0;
+        for (int i = 0; i < stripes; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private synchronized boolean tryTakeFragmented(int amount) {
+        int[] parts = new int[stripes];
+        int taken = 0;
+        for (int i = 0; i < stripes && taken < amount; i++) {
+            int index = i * PADDING;
+            int value;
+            while ((value = cells.get(index)) > 0) {
+                int part = Math.min(value, amount - taken);
+                if (cells.compareAndSet(index, value, value - part)) {
+                    parts[i] = part;
+                    taken += part;
+                    break;
+                }
+            }
+        }
+        if (taken < amount) {
+            for (int i = 0; i < stripes; i++) {
+                if (parts[i] > 0) {
+                    cells.addAndGet(i * PADDING, parts[i]);
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+}
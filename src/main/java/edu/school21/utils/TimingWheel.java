@@ -0,0 +1,107 @@
+package edu.school21.utils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Иерархическое колесо таймеров. Уровень 0 делит время на слоты длиной tickMillis, каждый следующий уровень
+ * в wheelSize раз грубее и добавляется, когда срок не помещается в существующие. Добавление и срабатывание
+ * стоят O(1) на элемент: при входе в слот верхнего уровня его элементы один раз переносятся ниже,
+ * а слот уровня 0 срабатывает целиком. Срабатывание запаздывает не больше чем на один тик.
+ * Удаления нет, отмененные элементы срабатывают как обычные, и владелец их пропускает
+ *
+ * @param <T> - тип элементов
+ */
+public class TimingWheel<T> {
+    private long tickMillis;
+    private int wheelSize;
+    private List<List<ArrayDeque<Entry<T>>>> levels = new ArrayList<>();
+    private long currentSlot;
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentSlot = startMillis / tickMillis;
+    }
+
+    /**
+     * @param item     - элемент
+     * @param deadline - время срабатывания в миллисекундах
+     * @return false, если срок уже прошел и элемент не добавлен
+     */
+    public synchronized boolean add(T item, long deadline) {
+        if (deadline / tickMillis < currentSlot) {
+            return false;
+        }
+        place(new Entry<>(item, deadline));
+        size++;
+        return true;
+    }
+
+    /**
+     * Метод сдвигает колесо до момента now и передает в consumer элементы с истекшим сроком
+     */
+    public synchronized void advance(long now, Consumer<T> consumer) {
+        long targetSlot = now / tickMillis;
+        while (currentSlot < targetSlot) {
+            currentSlot++;
+            ArrayDeque<Entry<T>> expired = bucket(0, currentSlot - 1);
+            for (Entry<T> entry = expired.poll(); entry != null; entry = expired.poll()) {
+                size--;
+                consumer.accept(entry.item());
+            }
+            long span = 1;
+            int topLevel = 0;
+            for (int level = 1; level < levels.size() && currentSlot % (span *= wheelSize) == 0; level++) {
+                topLevel = level;
+            }
+            // вход в слоты верхних уровней: элементы переносятся ниже, начиная с самого грубого уровня
+            for (int level = topLevel; level > 0; level--) {
+                ArrayDeque<Entry<T>> bucket = bucket(level, currentSlot / pow(level));
+                for (Entry<T> entry = bucket.poll(); entry != null; entry = bucket.poll()) {
+                    place(entry);
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void place(Entry<T> entry) {
+        for (int level = 0; ; level++) {
+            long span = pow(level);
+            long slot = entry.deadline() / tickMillis / span;
+            if (slot - currentSlot / span < wheelSize) {
+                bucket(level, slot).add(entry);
+                return;
+            }
+        }
+    }
+
+    private ArrayDeque<Entry<T>> bucket(int level, long slot) {
+        while (levels.size() <= level) {
+            List<ArrayDeque<Entry<T>>> buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new ArrayDeque<>());
+            }
+            levels.add(buckets);
+        }
+        return levels.get(level).get((int) (slot % wheelSize));
+    }
+
+    private long pow(int level) {
+        long span = 1;
+        for (int i = 0; i < level; i++) {
+            span *= wheelSize;
+        }
+        return span;
+    }
+
+    private record Entry<T>(T item, long deadline) {
+    }
+}
@@ -0,0 +1,111 @@
+package edu.school21;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+
+/**
+ * schema.sql применяется к базе со схемой до хранения изображений по хешу (baseline-schema.sql)
+ * так же, как spring.sql.init при запуске новой версии
+ */
+@Testcontainers
+public class SchemaMigrationTests {
+    private static PostgreSQLContainer<?> postgres;
+    private static JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    public static void init() {
+        postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:16.1-alpine"))
+                .withInitScript("baseline-schema.sql");
+        postgres.start();
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(postgres.getJdbcUrl(), postgres.getUsername(),
+                postgres.getPassword()));
+    }
+
+    @AfterAll
+    public static void stop() {
+        postgres.stop();
+    }
+
+    @Test
+    @DisplayName("Schema. Baseline database is upgraded: images are moved to image_blobs, products get stock_slots")
+    void testMigrateBaselineImages() {
+        byte[] first = deflate("first image".repeat(100));
+        byte[] second = deflate("second image".repeat(100));
+        UUID firstId = insertImage(first);
+        UUID duplicateId = insertImage(first);
+        UUID secondId = insertImage(second);
+        UUID productId = jdbcTemplate.queryForObject("INSERT INTO products " +
+                "(image_id, supplier_id, category_id, name, price, available_stock) " +
+                "VALUES (?, (SELECT id FROM suppliers), (SELECT id FROM categories), 'Product', 10, 5) " +
+                "RETURNING id", UUID.class, secondId);
+        // повторный запуск скрипта (каждый запуск приложения) ничего не меняет
+        applySchema();
+        applySchema();
+        List<String> columns = jdbcTemplate.queryForList("SELECT column_name FROM information_schema.columns " +
+                "WHERE table_name = 'images' ORDER BY column_name", String.class);
+        Assertions.assertEquals(List.of("created_date", "hash", "id"), columns);
+        String firstHash = hashOf(firstId);
+        Assertions.assertEquals(firstHash, hashOf(duplicateId));
+        Assertions.assertNotEquals(firstHash, hashOf(secondId));
+        Map<String, Object> blob = jdbcTemplate.queryForMap("SELECT * FROM image_blobs WHERE hash = ?", firstHash);
+        Assertions.assertEquals(-1L, blob.get("size"));
+        Assertions.assertEquals((long) first.length, blob.get("stored_length"));
+        Assertions.assertEquals("deflate", blob.get("codec"));
+        Assertions.assertEquals(2, blob.get("ref_count"));
+        Assertions.assertArrayEquals(first, jdbcTemplate.queryForObject(
+                "SELECT data FROM image_data WHERE hash = ? AND codec = 'deflate'", byte[].class, firstHash));
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT stock_slots FROM products WHERE id = ?", Integer.class, productId));
+        // ссылки images на image_blobs проверяются внешним ключом
+        Assertions.assertThrows(RuntimeException.class, () -> jdbcTemplate.update(
+                "UPDATE images SET hash = 'missing' WHERE id = ?", firstId));
+    }
+
+    private static void applySchema() {
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(jdbcTemplate.getDataSource());
+    }
+
+    private static UUID insertImage(byte[] image) {
+        if (jdbcTemplate.queryForObject("SELECT count(*) FROM suppliers", Integer.class) == 0) {
+            jdbcTemplate.update("INSERT INTO suppliers (name, phone_number) VALUES ('Supplier', '8(123)456-78-90')");
+            jdbcTemplate.update("INSERT INTO categories (name) VALUES ('Category')");
+        }
+        return jdbcTemplate.queryForObject("INSERT INTO images (image) VALUES (?) RETURNING id", UUID.class, image);
+    }
+
+    private static String hashOf(UUID imageId) {
+        return jdbcTemplate.queryForObject("SELECT hash FROM images WHERE id = ?", String.class, imageId);
+    }
+
+    /**
+     * Сжатие так же, как ImageUtils.compressImage в схеме до хранения по хешу
+     */
+    private static byte[] deflate(String data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data.getBytes());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4 * 1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+}
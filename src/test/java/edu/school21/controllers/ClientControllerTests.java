@@ -7,12 +7,16 @@ import edu.school21.repositories.ClientRepository;
 import edu.school21.utils.MappingUtils;
 import edu.school21.utils.Utils;
 import io.restassured.RestAssured;
+import io.restassured.response.Response;
 import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -90,6 +94,29 @@ public class ClientControllerTests extends ShopApplicationTests {
         });
     }
 
+    @Test
+    @DisplayName("API. GET. /api/v1/clients. Get all clients page by page with cursor")
+    void testGetAllClientsWithCursor_200() {
+        List<String> clientIdsInDb = clientRepository.findAll(Sort.by("surname", "id")).stream()
+                .map(client -> client.getId().toString())
+                .toList();
+        List<String> clientIds = new ArrayList<>();
+        String cursor = null;
+        do {
+            Response response = RestAssured.given()
+                    .port(port)
+                    .queryParam("limit", 2)
+                    .queryParams(cursor == null ? Map.of() : Map.of("cursor", cursor))
+                    .when()
+                    .get("api/v1/clients");
+            response.then()
+                    .statusCode(HTTP_OK);
+            clientIds.addAll(response.jsonPath().getList("id", String.class));
+            cursor = response.getHeader("X-Next-Cursor");
+        } while (cursor != null);
+        Assertions.assertEquals(clientIdsInDb, clientIds);
+    }
+
     @Test
     @DisplayName("API. GET. /api/v1/clients. Get all client, limit is max value, offset is 0")
     void testGetAllClientsLimitIsMaxOffsetIsZero_200() {
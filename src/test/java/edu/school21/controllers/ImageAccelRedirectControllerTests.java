@@ -0,0 +1,76 @@
+package edu.school21.controllers;
+
+import edu.school21.ShopApplicationTests;
+import edu.school21.dto.MessageDto;
+import edu.school21.models.Image;
+import edu.school21.services.ImageService;
+import io.restassured.RestAssured;
+import io.restassured.response.Response;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+
+@TestPropertySource(properties = {
+        "images.accel-redirect.enabled=true",
+        "images.accel-redirect.directory=target/accel-redirect-cache"
+})
+public class ImageAccelRedirectControllerTests extends ShopApplicationTests {
+    @Autowired
+    private ImageService imageService;
+    @Value("${images.accel-redirect.directory}")
+    private String directory;
+    @Value("${images.accel-redirect.location}")
+    private String location;
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Image body is offloaded to nginx through cached file")
+    void testGetImageAccelRedirect_200() throws IOException {
+        Image image = randomModels.getRandomImage();
+        MessageDto saved = imageService.saveImage(image);
+        String hash = image.getHash();
+        Response response = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .when()
+                .get("api/v1/images/{id}", saved.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .response();
+        String name = hash.substring(0, 2) + "/" + hash;
+        Assertions.assertEquals(location + name, response.getHeader("X-Accel-Redirect"));
+        Assertions.assertEquals("\"%s\"".formatted(hash), response.getHeader(HttpHeaders.ETAG));
+        Assertions.assertEquals(0, response.asByteArray().length);
+        Path file = Path.of(directory).toAbsolutePath().resolve(name);
+        Assertions.assertArrayEquals(image.getImage(), Files.readAllBytes(file));
+        // nginx читает файл от своего пользователя
+        Set<PosixFilePermission> filePermissions = Files.getPosixFilePermissions(file);
+        Assertions.assertTrue(filePermissions.contains(PosixFilePermission.OTHERS_READ));
+        Set<PosixFilePermission> directoryPermissions = Files.getPosixFilePermissions(file.getParent());
+        Assertions.assertTrue(directoryPermissions.contains(PosixFilePermission.OTHERS_READ));
+        Assertions.assertTrue(directoryPermissions.contains(PosixFilePermission.OTHERS_EXECUTE));
+        RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .header(HttpHeaders.IF_NONE_MATCH, "\"%s\"".formatted(hash))
+                .when()
+                .get("api/v1/images/{id}", saved.getId())
+                .then()
+                .statusCode(HTTP_NOT_MODIFIED);
+        imageService.deleteById(saved.getId());
+        Assertions.assertFalse(Files.exists(file));
+    }
+}
@@ -1,32 +1,85 @@
 package edu.school21.controllers;
 
 import edu.school21.ShopApplicationTests;
+import edu.school21.codecs.DeflateImageCodec;
+import edu.school21.codecs.IdentityImageCodec;
+import edu.school21.codecs.Lz4ImageCodec;
+import edu.school21.constants.UploadJobStatus;
+import edu.school21.dto.MessageDto;
+import edu.school21.exceptions.ImageContentRemovedException;
+import edu.school21.models.EncodedImage;
 import edu.school21.models.Image;
+import edu.school21.models.ImageBlob;
+import edu.school21.models.ImageCleanupResult;
+import edu.school21.models.ImageMetadata;
+import edu.school21.models.ImageUploadJob;
+import edu.school21.repositories.ImageBlobRepository;
+import edu.school21.repositories.ImageUploadJobRepository;
+import edu.school21.services.ImageRecompressionService;
 import edu.school21.services.ImageService;
+import edu.school21.services.ImageUploadService;
+import edu.school21.utils.ImageUtils;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 
+import static java.net.HttpURLConnection.HTTP_ACCEPTED;
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_CREATED;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_NO_CONTENT;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 public class ImageControllerTests extends ShopApplicationTests {
     @Autowired
     private ImageService imageService;
+    @Autowired
+    private ImageRecompressionService imageRecompressionService;
+    @Autowired
+    private ImageBlobRepository imageBlobRepository;
+    @Autowired
+    private ImageUploadService imageUploadService;
+    @Autowired
+    private ImageUtils imageUtils;
+    @Autowired
+    private ImageUploadJobRepository imageUploadJobRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Value("${images.upload.spool-directory}")
+    private String spoolDirectory;
+    @Value("${images.streaming.chunk-size}")
+    private int chunkSize;
 
     @Test
     @DisplayName("API. GET. /api/v1/images/{id}. Get exists image by id")
@@ -46,6 +99,316 @@ public class ImageControllerTests extends ShopApplicationTests {
         imageService.deleteById(randomImage.getId());
     }
 
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Get exists image by id when client does not accept deflate")
+    void testGetExistsImageByIdWithIdentityEncoding_200() {
+        Image randomImage = randomModels.getRandomImage();
+        byte[] expectedImageBytes = randomImage.getImage();
+        imageService.saveImage(randomImage);
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .header(HttpHeaders.CONTENT_ENCODING, nullValue())
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        imageService.deleteById(randomImage.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Get not modified image by ETag")
+    void testGetNotModifiedImageByETag_304() {
+        Image randomImage = randomModels.getRandomImage();
+        imageService.saveImage(randomImage);
+        String eTag = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .header(HttpHeaders.ETAG, notNullValue())
+                .header(HttpHeaders.CACHE_CONTROL, notNullValue())
+                .extract()
+                .header(HttpHeaders.ETAG);
+        RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_NOT_MODIFIED);
+        imageService.deleteById(randomImage.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Get part of exists image by Range")
+    void testGetPartOfExistsImageByRange_206() {
+        Image randomImage = randomModels.getRandomImage();
+        byte[] expectedImageBytes = Arrays.copyOfRange(randomImage.getImage(), 5, 10);
+        imageService.saveImage(randomImage);
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .header(HttpHeaders.RANGE, "bytes=5-9")
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_PARTIAL)
+                .header(HttpHeaders.CONTENT_RANGE, equalTo("bytes 5-9/%d".formatted(randomImage.getImage().length)))
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        imageService.deleteById(randomImage.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Image larger than streaming chunk is read chunk by chunk")
+    void testGetImageSpanningChunks_200() {
+        // случайные данные не сжимаются и хранятся как есть, поэтому тело ответа читается из базы порциями
+        byte[] expectedImageBytes = new byte[3 * chunkSize + 123];
+        new Random().nextBytes(expectedImageBytes);
+        Image image = new Image(expectedImageBytes);
+        imageService.saveImage(image);
+        Assertions.assertEquals(IdentityImageCodec.ID, imageService.findMetadataById(image.getId()).getCodec());
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .when()
+                .get("api/v1/images/{id}", image.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .header(HttpHeaders.CONTENT_LENGTH, equalTo(String.valueOf(expectedImageBytes.length)))
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        int start = chunkSize - 10;
+        int end = 2 * chunkSize + 10;
+        byte[] responsePartBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .header(HttpHeaders.RANGE, "bytes=%d-%d".formatted(start, end))
+                .when()
+                .get("api/v1/images/{id}", image.getId())
+                .then()
+                .statusCode(HTTP_PARTIAL)
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(Arrays.copyOfRange(expectedImageBytes, start, end + 1), responsePartBytes);
+        imageService.deleteById(image.getId());
+    }
+
+    @Test
+    @DisplayName("Storage. Database. Data deleted while streaming fails the stream instead of truncating it")
+    void testStreamDeletedWhileReading() throws IOException {
+        byte[] expectedImageBytes = new byte[3 * chunkSize];
+        new Random().nextBytes(expectedImageBytes);
+        Image image = new Image(expectedImageBytes);
+        imageService.saveImage(image);
+        ImageMetadata uploaded = imageService.findMetadataById(image.getId());
+        try (InputStream download = imageService.openStoredStream(uploaded, 0, uploaded.getStoredLength())) {
+            Assertions.assertEquals(chunkSize, download.readNBytes(chunkSize).length);
+            jdbcTemplate.update("DELETE FROM image_data WHERE hash = ?", uploaded.getHash());
+            Assertions.assertThrows(IOException.class, download::readAllBytes);
+        }
+        imageService.deleteById(image.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Get exists PNG image stored without compression")
+    void testGetExistsPngImageById_200() {
+        Image randomImage = randomModels.getRandomImage();
+        byte[] pngSignature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+        byte[] expectedImageBytes = new byte[pngSignature.length + randomImage.getImage().length];
+        System.arraycopy(pngSignature, 0, expectedImageBytes, 0, pngSignature.length);
+        System.arraycopy(randomImage.getImage(), 0, expectedImageBytes, pngSignature.length,
+                randomImage.getImage().length);
+        randomImage.setImage(expectedImageBytes);
+        imageService.saveImage(randomImage);
+        Assertions.assertEquals(IdentityImageCodec.ID,
+                imageBlobRepository.findById(randomImage.getHash()).orElseThrow().getCodec());
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .contentType(MediaType.IMAGE_PNG_VALUE)
+                .header(HttpHeaders.CONTENT_ENCODING, nullValue())
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        imageService.deleteById(randomImage.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Get exists image after background recompression")
+    void testGetRecompressedImageById_200() {
+        Image randomImage = randomModels.getRandomImage();
+        byte[] expectedImageBytes = new byte[randomImage.getImage().length * 100];
+        for (int i = 0; i < expectedImageBytes.length; i++) {
+            expectedImageBytes[i] = randomImage.getImage()[i % randomImage.getImage().length];
+        }
+        randomImage.setImage(expectedImageBytes);
+        imageService.saveImage(randomImage);
+        ImageBlob uploaded = imageBlobRepository.findById(randomImage.getHash()).orElseThrow();
+        Assertions.assertEquals(Lz4ImageCodec.ID, uploaded.getCodec());
+        Assertions.assertTrue(uploaded.getRecompress());
+        while (imageRecompressionService.recompressBatch() > 0) {
+        }
+        ImageBlob recompressed = imageBlobRepository.findById(randomImage.getHash()).orElseThrow();
+        Assertions.assertEquals(DeflateImageCodec.ID, recompressed.getCodec());
+        Assertions.assertFalse(recompressed.getRecompress());
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        imageService.deleteById(randomImage.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Download started before recompression reads the old copy")
+    void testGetImageRecompressedWhileStreaming_200() throws IOException {
+        // половина данных случайная, половина повторяется: lz4 сжимает их, но хуже deflate
+        byte[] expectedImageBytes = new byte[512 * 1024];
+        new Random().nextBytes(expectedImageBytes);
+        for (int i = expectedImageBytes.length / 2; i < expectedImageBytes.length; i++) {
+            expectedImageBytes[i] = (byte) (i % 64);
+        }
+        Image image = new Image(expectedImageBytes);
+        imageService.saveImage(image);
+        ImageMetadata uploaded = imageService.findMetadataById(image.getId());
+        Assertions.assertEquals(Lz4ImageCodec.ID, uploaded.getCodec());
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (InputStream download = imageService.openStoredStream(uploaded, 0, uploaded.getStoredLength())) {
+            stored.write(download.readNBytes(1024));
+            while (imageRecompressionService.recompressBatch() > 0) {
+            }
+            Assertions.assertEquals(DeflateImageCodec.ID, imageService.findMetadataById(image.getId()).getCodec());
+            download.transferTo(stored);
+        }
+        Assertions.assertEquals(uploaded.getStoredLength(), stored.size());
+        try (InputStream decoded = new Lz4ImageCodec().decode(new ByteArrayInputStream(stored.toByteArray()))) {
+            Assertions.assertArrayEquals(expectedImageBytes, decoded.readAllBytes());
+        }
+        // по истечении срока ожидания старая копия удаляется
+        Assertions.assertTrue(imageService.deleteRetiredContent(-60, 1000) >= 1);
+        try (InputStream retired = imageService.openStoredStream(uploaded, 0, uploaded.getStoredLength())) {
+            Assertions.assertThrows(IOException.class, retired::readAllBytes);
+        }
+        imageService.deleteById(image.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}?w=. Get resized image by id")
+    void testGetResizedImageById_200() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB), "png", outputStream);
+        Image image = new Image(outputStream.toByteArray());
+        imageService.saveImage(image);
+        // 100 округляется до размера копий 128, поэтому оба запроса получают одну и ту же копию
+        for (int width : new int[]{100, 128}) {
+            byte[] responseImageBytes = RestAssured.given()
+                    .port(port)
+                    .queryParam("w", width)
+                    .when()
+                    .get("api/v1/images/{id}", image.getId())
+                    .then()
+                    .statusCode(HTTP_OK)
+                    .contentType(MediaType.IMAGE_PNG_VALUE)
+                    .extract()
+                    .asByteArray();
+            BufferedImage resized = ImageIO.read(new ByteArrayInputStream(responseImageBytes));
+            Assertions.assertEquals(128, resized.getWidth());
+            Assertions.assertEquals(64, resized.getHeight());
+        }
+        RestAssured.given()
+                .port(port)
+                .queryParam("w", 0)
+                .when()
+                .get("api/v1/images/{id}", image.getId())
+                .then()
+                .statusCode(HTTP_BAD_REQUEST);
+        imageService.deleteById(image.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/cache. Repeated decompression is served from the cache")
+    void testGetCachedImageById_200() {
+        Image randomImage = randomModels.getRandomImage();
+        byte[] expectedImageBytes = new byte[randomImage.getImage().length * 100];
+        for (int i = 0; i < expectedImageBytes.length; i++) {
+            expectedImageBytes[i] = randomImage.getImage()[i % randomImage.getImage().length];
+        }
+        randomImage.setImage(expectedImageBytes);
+        imageService.saveImage(randomImage);
+        long hits = getCacheStats().getLong("hits");
+        long misses = getCacheStats().getLong("misses");
+        for (int i = 0; i < 3; i++) {
+            byte[] responseImageBytes = RestAssured.given()
+                    .port(port)
+                    .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                    .when()
+                    .get("api/v1/images/{id}", randomImage.getId())
+                    .then()
+                    .statusCode(HTTP_OK)
+                    .extract()
+                    .asByteArray();
+            Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        }
+        Assertions.assertEquals(hits + 2, getCacheStats().getLong("hits"));
+        Assertions.assertEquals(misses + 1, getCacheStats().getLong("misses"));
+        long size = getCacheStats().getLong("size");
+        imageService.deleteById(randomImage.getId());
+        Assertions.assertEquals(size - expectedImageBytes.length, getCacheStats().getLong("size"));
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/{id}. Orphaned image is removed by the cleanup")
+    void testGetCleanedOrphanedImageById_404() {
+        Image randomImage = randomModels.getRandomImage();
+        imageService.saveImage(randomImage);
+        long storedLength = imageBlobRepository.findById(randomImage.getHash()).orElseThrow().getStoredLength();
+        Assertions.assertEquals(0, imageService.deleteOrphanedImages(3600, 1000).deleted());
+        // отрицательный срок ожидания захватывает и только что загруженное изображение
+        ImageCleanupResult result = imageService.deleteOrphanedImages(-60, 1000);
+        Assertions.assertTrue(result.deleted() >= 1);
+        Assertions.assertTrue(result.reclaimedBytes() >= storedLength);
+        Assertions.assertTrue(imageBlobRepository.findById(randomImage.getHash()).isEmpty());
+        RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/{id}", randomImage.getId())
+                .then()
+                .statusCode(HTTP_NOT_FOUND);
+        List<String> productImageIds = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/products")
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .jsonPath()
+                .getList("image_id", String.class);
+        for (String productImageId : productImageIds) {
+            RestAssured.given()
+                    .port(port)
+                    .when()
+                    .get("api/v1/images/{id}", productImageId)
+                    .then()
+                    .statusCode(HTTP_OK);
+        }
+    }
+
     @Test
     @DisplayName("API. GET. /api/v1/images/{id}. Get non exists image by id")
     void testGetNonExistsImageById_404() {
@@ -84,6 +447,34 @@ public class ImageControllerTests extends ShopApplicationTests {
         imageService.deleteById(createdImageId);
     }
 
+    @Test
+    @DisplayName("API. POST. /api/v1/images. Created duplicate image shares stored content")
+    void testPostDuplicateImage_201() throws IOException {
+        File tempFile = File.createTempFile("temp-image", ".tmp");
+        tempFile.deleteOnExit();
+        Image randomImage = randomModels.getRandomImage();
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        fos.write(randomImage.getImage());
+        UUID firstImageId = postImage(tempFile);
+        UUID secondImageId = postImage(tempFile);
+        Assertions.assertNotEquals(firstImageId, secondImageId);
+        String hash = imageService.findById(firstImageId).getHash();
+        Assertions.assertEquals(hash, imageService.findById(secondImageId).getHash());
+        Assertions.assertEquals(2, imageBlobRepository.findById(hash).orElseThrow().getRefCount());
+        imageService.deleteById(firstImageId);
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/{id}", secondImageId)
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(randomImage.getImage(), responseImageBytes);
+        imageService.deleteById(secondImageId);
+        Assertions.assertFalse(imageBlobRepository.existsById(hash));
+    }
+
     @Test
     @DisplayName("API. POST. /api/v1/images. Try created empty image")
     void testPostEmptyImage_404() throws IOException {
@@ -196,4 +587,266 @@ public class ImageControllerTests extends ShopApplicationTests {
                 .body("path", endsWith("/api/v1/images/%s".formatted(randomId)),
                         "message", equalTo("Image with id: %s not found".formatted(randomId)));
     }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/images/batch. Created images in order of files")
+    void testPostImagesBatch_201() throws IOException {
+        Image firstImage = randomModels.getRandomImage();
+        Image secondImage = randomModels.getRandomImage();
+        File firstFile = File.createTempFile("temp-image", ".tmp");
+        firstFile.deleteOnExit();
+        File secondFile = File.createTempFile("temp-image", ".tmp");
+        secondFile.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(firstFile)) {
+            fos.write(firstImage.getImage());
+        }
+        try (FileOutputStream fos = new FileOutputStream(secondFile)) {
+            fos.write(secondImage.getImage());
+        }
+        List<String> ids = RestAssured.given()
+                .contentType(ContentType.MULTIPART)
+                .port(port)
+                .multiPart("files", firstFile)
+                .multiPart("files", secondFile)
+                .multiPart("files", firstFile)
+                .when()
+                .post("api/v1/images/batch")
+                .then()
+                .statusCode(HTTP_CREATED)
+                .body("size()", equalTo(3),
+                        "message", everyItem(equalTo("Image saved successfully")))
+                .extract()
+                .jsonPath()
+                .getList("id");
+        List<byte[]> expectedImages = List.of(firstImage.getImage(), secondImage.getImage(), firstImage.getImage());
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] responseImageBytes = RestAssured.given()
+                    .port(port)
+                    .when()
+                    .get("api/v1/images/{id}", ids.get(i))
+                    .then()
+                    .statusCode(HTTP_OK)
+                    .extract()
+                    .asByteArray();
+            Assertions.assertArrayEquals(expectedImages.get(i), responseImageBytes);
+        }
+        String firstHash = imageService.findById(UUID.fromString(ids.get(0))).getHash();
+        Assertions.assertEquals(2, imageBlobRepository.findById(firstHash).orElseThrow().getRefCount());
+        ids.forEach(id -> imageService.deleteById(UUID.fromString(id)));
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/images/batch. Adjacent duplicates of new image are stored once")
+    void testPostImagesBatchAdjacentDuplicates_201() throws IOException {
+        Image firstImage = randomModels.getRandomImage();
+        Image secondImage = randomModels.getRandomImage();
+        File firstFile = File.createTempFile("temp-image", ".tmp");
+        firstFile.deleteOnExit();
+        File secondFile = File.createTempFile("temp-image", ".tmp");
+        secondFile.deleteOnExit();
+        Files.write(firstFile.toPath(), firstImage.getImage());
+        Files.write(secondFile.toPath(), secondImage.getImage());
+        List<String> ids = RestAssured.given()
+                .contentType(ContentType.MULTIPART)
+                .port(port)
+                .multiPart("files", firstFile)
+                .multiPart("files", firstFile)
+                .multiPart("files", secondFile)
+                .when()
+                .post("api/v1/images/batch")
+                .then()
+                .statusCode(HTTP_CREATED)
+                .body("size()", equalTo(3))
+                .extract()
+                .jsonPath()
+                .getList("id");
+        String firstHash = imageService.findById(UUID.fromString(ids.get(0))).getHash();
+        String secondHash = imageService.findById(UUID.fromString(ids.get(2))).getHash();
+        Assertions.assertEquals(firstHash, imageService.findById(UUID.fromString(ids.get(1))).getHash());
+        Assertions.assertEquals(2, imageBlobRepository.findById(firstHash).orElseThrow().getRefCount());
+        Assertions.assertEquals(1, imageBlobRepository.findById(secondHash).orElseThrow().getRefCount());
+        ids.forEach(id -> imageService.deleteById(UUID.fromString(id)));
+        Assertions.assertTrue(imageBlobRepository.findById(firstHash).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Batch save. Content stored by concurrent upload gets references of the batch")
+    void testSaveEncodedImagesStoredConcurrently() {
+        Image image = randomModels.getRandomImage();
+        byte[] content = image.getImage();
+        MessageDto saved = imageService.saveImage(image);
+        String hash = image.getHash();
+        EncodedImage encoded = imageService.encode(hash, content);
+        List<MessageDto> batch = imageService.saveEncodedImages(List.of(hash, hash), Map.of(hash, encoded));
+        Assertions.assertEquals(3, imageBlobRepository.findById(hash).orElseThrow().getRefCount());
+        imageService.deleteById(saved.getId());
+        batch.forEach(message -> imageService.deleteById(message.getId()));
+        Assertions.assertTrue(imageBlobRepository.findById(hash).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Batch save. Content removed after existence check rolls batch back")
+    void testSaveEncodedImagesRemovedConcurrently() {
+        String hash = imageUtils.hash(randomModels.getRandomImage().getImage());
+        Assertions.assertThrows(ImageContentRemovedException.class,
+                () -> imageService.saveEncodedImages(List.of(hash), Map.of()));
+        Assertions.assertTrue(imageBlobRepository.findById(hash).isEmpty());
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/images/async. Accepted image is saved by upload job")
+    void testPostImageAsync_202() throws IOException, InterruptedException {
+        File tempFile = File.createTempFile("temp-image", ".tmp");
+        tempFile.deleteOnExit();
+        Image randomImage = randomModels.getRandomImage();
+        FileOutputStream fos = new FileOutputStream(tempFile);
+        fos.write(randomImage.getImage());
+        UUID jobId = RestAssured.given()
+                .contentType(ContentType.MULTIPART)
+                .port(port)
+                .multiPart("file", tempFile)
+                .when()
+                .post("api/v1/images/async")
+                .then()
+                .statusCode(HTTP_ACCEPTED)
+                .body("id", notNullValue())
+                .extract()
+                .jsonPath()
+                .getUUID("id");
+        String status = null;
+        for (int i = 0; i < 50 && !"completed".equals(status); i++) {
+            Thread.sleep(100);
+            status = RestAssured.given()
+                    .port(port)
+                    .when()
+                    .get("api/v1/images/async/{id}", jobId)
+                    .then()
+                    .statusCode(HTTP_OK)
+                    .extract()
+                    .jsonPath()
+                    .getString("status");
+        }
+        Assertions.assertEquals("completed", status);
+        UUID imageId = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/async/{id}", jobId)
+                .then()
+                .extract()
+                .jsonPath()
+                .getUUID("image_id");
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/{id}", imageId)
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(randomImage.getImage(), responseImageBytes);
+        imageService.deleteById(imageId);
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/images/async. Accepted compressible image is stored compressed by upload job")
+    void testPostCompressibleImageAsync_202() throws IOException, InterruptedException {
+        byte[] expectedImageBytes = new byte[512 * 1024];
+        new Random().nextBytes(expectedImageBytes);
+        for (int i = expectedImageBytes.length / 2; i < expectedImageBytes.length; i++) {
+            expectedImageBytes[i] = (byte) (i % 64);
+        }
+        File tempFile = File.createTempFile("temp-image", ".tmp");
+        tempFile.deleteOnExit();
+        Files.write(tempFile.toPath(), expectedImageBytes);
+        UUID jobId = RestAssured.given()
+                .contentType(ContentType.MULTIPART)
+                .port(port)
+                .multiPart("file", tempFile)
+                .when()
+                .post("api/v1/images/async")
+                .then()
+                .statusCode(HTTP_ACCEPTED)
+                .extract()
+                .jsonPath()
+                .getUUID("id");
+        String status = null;
+        for (int i = 0; i < 50 && !"completed".equals(status); i++) {
+            Thread.sleep(100);
+            status = imageUploadService.findJobById(jobId).getStatus().getValue();
+        }
+        Assertions.assertEquals("completed", status);
+        UUID imageId = imageUploadService.findJobById(jobId).getImageId();
+        ImageBlob stored = imageBlobRepository.findById(imageService.findById(imageId).getHash()).orElseThrow();
+        Assertions.assertEquals(Lz4ImageCodec.ID, stored.getCodec());
+        Assertions.assertEquals(expectedImageBytes.length, stored.getSize());
+        byte[] responseImageBytes = RestAssured.given()
+                .port(port)
+                .header(HttpHeaders.ACCEPT_ENCODING, "identity")
+                .when()
+                .get("api/v1/images/{id}", imageId)
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .asByteArray();
+        Assertions.assertArrayEquals(expectedImageBytes, responseImageBytes);
+        imageService.deleteById(imageId);
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/async/{id}. Upload job left by previous run fails on startup")
+    void testGetInterruptedUploadJob_200() throws IOException {
+        ImageUploadJob job = imageUploadJobRepository.save(new ImageUploadJob(UploadJobStatus.PENDING));
+        Path spoolFile = Path.of(spoolDirectory).toAbsolutePath().resolve(job.getId().toString());
+        Files.createDirectories(spoolFile.getParent());
+        Files.write(spoolFile, randomModels.getRandomImage().getImage());
+        imageUploadService.failInterruptedJobs();
+        Assertions.assertFalse(Files.exists(spoolFile));
+        RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/async/{id}", job.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .body("status", equalTo("failed"),
+                        "error", equalTo("Upload interrupted by server shutdown"));
+        imageUploadJobRepository.deleteById(job.getId());
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/images/async/{id}. Get non exists upload job")
+    void testGetNonExistsUploadJob_404() {
+        UUID randomId = UUID.randomUUID();
+        RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/async/{id}", randomId)
+                .then()
+                .statusCode(HTTP_NOT_FOUND)
+                .body("message", equalTo("Upload job with id: %s not found".formatted(randomId)));
+    }
+
+    private JsonPath getCacheStats() {
+        return RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/images/cache")
+                .then()
+                .statusCode(HTTP_OK)
+                .extract()
+                .jsonPath();
+    }
+
+    private UUID postImage(File file) {
+        return RestAssured.given()
+                .contentType(ContentType.MULTIPART)
+                .port(port)
+                .multiPart("file", file)
+                .when()
+                .post("api/v1/images")
+                .then()
+                .statusCode(HTTP_CREATED)
+                .extract()
+                .jsonPath()
+                .getUUID("id");
+    }
 }
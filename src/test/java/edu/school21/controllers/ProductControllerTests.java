@@ -2,24 +2,36 @@ package edu.school21.controllers;
 
 import edu.school21.ShopApplicationTests;
 import edu.school21.dto.ProductDto;
+import edu.school21.models.Image;
+import edu.school21.models.ImageBlob;
+import edu.school21.models.ImageMetadata;
 import edu.school21.models.Product;
 import edu.school21.repositories.CategoryRepository;
+import edu.school21.repositories.ImageMetadataRepository;
 import edu.school21.repositories.ProductRepository;
 import edu.school21.repositories.SupplierRepository;
 import edu.school21.services.ImageService;
 import edu.school21.utils.MappingUtils;
 import edu.school21.utils.Utils;
 import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
 import org.assertj.core.api.SoftAssertions;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
@@ -45,6 +57,10 @@ public class ProductControllerTests extends ShopApplicationTests {
     private CategoryRepository categoryRepository;
     @Autowired
     private SupplierRepository supplierRepository;
+    @Autowired
+    private ImageMetadataRepository imageMetadataRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
 
     @Test
     @DisplayName("API. GET. /api/v1/products. Get all products without pagination")
@@ -100,6 +116,29 @@ public class ProductControllerTests extends ShopApplicationTests {
         });
     }
 
+    @Test
+    @DisplayName("API. GET. /api/v1/products. Get all products page by page with cursor")
+    void testGetAllProductsWithCursor_200() {
+        List<String> productIdsInDb = productRepository.findAll(Sort.by("name", "id")).stream()
+                .map(product -> product.getId().toString())
+                .toList();
+        List<String> productIds = new ArrayList<>();
+        String cursor = null;
+        do {
+            Response response = RestAssured.given()
+                    .port(port)
+                    .queryParam("limit", 2)
+                    .queryParams(cursor == null ? Map.of() : Map.of("cursor", cursor))
+                    .when()
+                    .get("api/v1/products");
+            response.then()
+                    .statusCode(HTTP_OK);
+            productIds.addAll(response.jsonPath().getList("id", String.class));
+            cursor = response.getHeader("X-Next-Cursor");
+        } while (cursor != null);
+        Assertions.assertEquals(productIdsInDb, productIds);
+    }
+
     @Test
     @DisplayName("API. GET. /api/v1/products. Get all products, limit is max value, offset is 0")
     void testGetAllProductsLimitIsMaxOffsetIsZero_200() {
@@ -389,6 +428,219 @@ public class ProductControllerTests extends ShopApplicationTests {
         categoryRepository.deleteById(existsProductInDb.getCategory().getId());
     }
 
+    @Test
+    @DisplayName("API. PATCH. /api/v1/products/amount/{id}. Concurrent reductions never oversell")
+    void testPatchExistsProductReduceAmountConcurrently() throws Exception {
+        Product existsProductInDb = randomModels.getRandomProduct();
+        supplierRepository.save(existsProductInDb.getSupplier());
+        imageService.saveImage(existsProductInDb.getImage());
+        categoryRepository.save(existsProductInDb.getCategory());
+        productRepository.save(existsProductInDb);
+        int stock = existsProductInDb.getAvailableStock();
+        int extraRequests = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> statuses = IntStream.range(0, stock + extraRequests)
+                .mapToObj(i -> executor.submit(() -> RestAssured.given()
+                        .port(port)
+                        .when()
+                        .params("amount", 1)
+                        .patch("api/v1/products/amount/{id}", existsProductInDb.getId())
+                        .then()
+                        .extract()
+                        .statusCode()))
+                .toList();
+        int succeeded = 0;
+        int rejected = 0;
+        for (Future<Integer> status : statuses) {
+            int statusCode = status.get();
+            if (statusCode == HTTP_OK) {
+                succeeded++;
+            } else if (statusCode == HTTP_BAD_REQUEST) {
+                rejected++;
+            }
+        }
+        executor.shutdown();
+        Assertions.assertEquals(stock, succeeded);
+        Assertions.assertEquals(extraRequests, rejected);
+        Assertions.assertEquals(0, productRepository.findById(existsProductInDb.getId())
+                .orElseThrow()
+                .getAvailableStock());
+        supplierRepository.deleteById(existsProductInDb.getSupplier().getId());
+        imageService.deleteById(existsProductInDb.getImage().getId());
+        categoryRepository.deleteById(existsProductInDb.getCategory().getId());
+    }
+
+    @Test
+    @DisplayName("API. PATCH. /api/v1/products/amount/{id}. Reduce amount of non exists product")
+    void testPatchNonExistsProductReduceAmount_404() {
+        UUID randomId = UUID.randomUUID();
+        RestAssured.given()
+                .port(port)
+                .when()
+                .params("amount", 1)
+                .patch("api/v1/products/amount/{id}", randomId)
+                .then()
+                .statusCode(HTTP_NOT_FOUND)
+                .body("message", equalTo("Product with id: %s not found".formatted(randomId)));
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/products/reservations. Reserve several products")
+    void testPostReservation_200() {
+        Product firstProduct = saveRandomProduct();
+        Product secondProduct = saveRandomProduct();
+        Map<String, Object> body = Map.of("lines", List.of(
+                Map.of("product_id", firstProduct.getId(), "amount", 2),
+                Map.of("product_id", secondProduct.getId(), "amount", 1),
+                Map.of("product_id", firstProduct.getId(), "amount", 3)));
+        RestAssured.given()
+                .port(port)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("api/v1/products/reservations")
+                .then()
+                .statusCode(HTTP_OK)
+                .body("id", contains(firstProduct.getId().toString(), secondProduct.getId().toString()),
+                        "available_stock", contains(firstProduct.getAvailableStock() - 5,
+                                secondProduct.getAvailableStock() - 1));
+        deleteProduct(firstProduct);
+        deleteProduct(secondProduct);
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/products/reservations. Reserve products with insufficient stock")
+    void testPostReservationInsufficientStock_400() {
+        Product firstProduct = saveRandomProduct();
+        Product secondProduct = saveRandomProduct();
+        Map<String, Object> body = Map.of("lines", List.of(
+                Map.of("product_id", firstProduct.getId(), "amount", 1),
+                Map.of("product_id", secondProduct.getId(), "amount", secondProduct.getAvailableStock() + 1)));
+        RestAssured.given()
+                .port(port)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("api/v1/products/reservations")
+                .then()
+                .statusCode(HTTP_BAD_REQUEST)
+                .body("shortfalls.product_id", contains(secondProduct.getId().toString()),
+                        "shortfalls.requested", contains(secondProduct.getAvailableStock() + 1),
+                        "shortfalls.available", contains(secondProduct.getAvailableStock()));
+        Assertions.assertEquals(firstProduct.getAvailableStock(),
+                productRepository.findById(firstProduct.getId()).orElseThrow().getAvailableStock());
+        deleteProduct(firstProduct);
+        deleteProduct(secondProduct);
+    }
+
+    @Test
+    @DisplayName("API. PATCH. /api/v1/products/stock-slots/{id}. Concurrent reductions of sharded product")
+    void testPatchShardedProductReduceAmountConcurrently() throws Exception {
+        Product product = saveRandomProduct();
+        int stock = product.getAvailableStock();
+        RestAssured.given()
+                .port(port)
+                .when()
+                .params("slots", 4)
+                .patch("api/v1/products/stock-slots/{id}", product.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .body("available_stock", equalTo(stock));
+        int extraRequests = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> statuses = IntStream.range(0, stock + extraRequests)
+                .mapToObj(i -> executor.submit(() -> RestAssured.given()
+                        .port(port)
+                        .when()
+                        .params("amount", 1)
+                        .patch("api/v1/products/amount/{id}", product.getId())
+                        .then()
+                        .extract()
+                        .statusCode()))
+                .toList();
+        int succeeded = 0;
+        for (Future<Integer> status : statuses) {
+            if (status.get() == HTTP_OK) {
+                succeeded++;
+            }
+        }
+        executor.shutdown();
+        Assertions.assertEquals(stock, succeeded);
+        RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/products/{id}", product.getId())
+                .then()
+                .statusCode(HTTP_OK)
+                .body("available_stock", equalTo(0));
+        deleteProduct(product);
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/products/holds. Held stock returns after the hold expires")
+    void testPostHoldExpires_201() throws Exception {
+        Product product = saveRandomProduct();
+        int stock = product.getAvailableStock();
+        Map<String, Object> body = Map.of("ttl_seconds", 1, "lines", List.of(
+                Map.of("product_id", product.getId(), "amount", 2),
+                Map.of("product_id", product.getId(), "amount", 3)));
+        RestAssured.given()
+                .port(port)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("api/v1/products/holds")
+                .then()
+                .statusCode(HTTP_CREATED)
+                .body("id", is(notNullValue()),
+                        "expires_at", is(notNullValue()),
+                        "lines.product_id", contains(product.getId().toString()),
+                        "lines.amount", contains(5));
+        Assertions.assertEquals(stock - 5,
+                productRepository.findById(product.getId()).orElseThrow().getAvailableStock());
+        for (int i = 0; i < 50 && productRepository.findById(product.getId()).orElseThrow()
+                .getAvailableStock() != stock; i++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(stock,
+                productRepository.findById(product.getId()).orElseThrow().getAvailableStock());
+        deleteProduct(product);
+    }
+
+    @Test
+    @DisplayName("API. POST. /api/v1/products/holds/{id}/confirm. Confirmed hold keeps stock reduced")
+    void testPostConfirmHold_204() {
+        Product product = saveRandomProduct();
+        Map<String, Object> body = Map.of("ttl_seconds", 600, "lines", List.of(
+                Map.of("product_id", product.getId(), "amount", 1)));
+        String holdId = RestAssured.given()
+                .port(port)
+                .contentType(ContentType.JSON)
+                .body(body)
+                .when()
+                .post("api/v1/products/holds")
+                .then()
+                .statusCode(HTTP_CREATED)
+                .extract()
+                .path("id");
+        RestAssured.given()
+                .port(port)
+                .when()
+                .post("api/v1/products/holds/{id}/confirm", holdId)
+                .then()
+                .statusCode(HTTP_NO_CONTENT);
+        RestAssured.given()
+                .port(port)
+                .when()
+                .delete("api/v1/products/holds/{id}", holdId)
+                .then()
+                .statusCode(HTTP_NOT_FOUND)
+                .body("message", equalTo("Stock hold with id: %s not found".formatted(holdId)));
+        Assertions.assertEquals(product.getAvailableStock() - 1,
+                productRepository.findById(product.getId()).orElseThrow().getAvailableStock());
+        deleteProduct(product);
+    }
+
     @Test
     @DisplayName("API. GET. /api/v1/products/image/{id}. Get image by exists product id")
     void testGetImageByExistsProductId_200() {
@@ -412,6 +664,41 @@ public class ProductControllerTests extends ShopApplicationTests {
         categoryRepository.deleteById(existsProductInDb.getCategory().getId());
     }
 
+    @Test
+    @DisplayName("Image metadata. Product image metadata is read from image_blobs without image data")
+    void testFindImageMetadataByProductId() {
+        Product existsProductInDb = randomModels.getRandomProduct();
+        supplierRepository.save(existsProductInDb.getSupplier());
+        imageService.saveImage(existsProductInDb.getImage());
+        categoryRepository.save(existsProductInDb.getCategory());
+        productRepository.save(existsProductInDb);
+        Image image = existsProductInDb.getImage();
+        ImageBlob content = imageService.findContent(image.getHash());
+        // без строки image_data метаданные находятся, только если запрос не читает bytea
+        jdbcTemplate.update("DELETE FROM image_data WHERE hash = ?", image.getHash());
+        ImageMetadata expected = new ImageMetadata(image.getId(), content.getHash(), content.getSize(),
+                content.getStoredLength(), content.getCodec(), content.getMediaType());
+        Assertions.assertEquals(expected,
+                imageMetadataRepository.findByProductId(existsProductInDb.getId()).orElseThrow());
+        Assertions.assertEquals(expected, imageService.findMetadataById(image.getId()));
+        Assertions.assertTrue(imageMetadataRepository.findByProductId(UUID.randomUUID()).isEmpty());
+        deleteProduct(existsProductInDb);
+    }
+
+    @Test
+    @DisplayName("API. GET. /api/v1/products/image/{id}. Get image by non exists product id")
+    void testGetImageByNonExistsProductId_404() {
+        UUID randomId = UUID.randomUUID();
+        RestAssured.given()
+                .port(port)
+                .when()
+                .get("api/v1/products/image/{id}", randomId)
+                .then()
+                .statusCode(HTTP_NOT_FOUND)
+                .body("path", endsWith("/api/v1/products/image/%s".formatted(randomId)),
+                        "message", equalTo("Product with id: %s not found".formatted(randomId)));
+    }
+
     @Test
     @DisplayName("API. DELETE. /api/v1/products/{id}. Delete exists product")
     void testDeleteExistsProduct_204() {
@@ -444,4 +731,18 @@ public class ProductControllerTests extends ShopApplicationTests {
                 .body("path", endsWith("/api/v1/products/%s".formatted(randomId)),
                         "message", equalTo("Product with id: %s not found".formatted(randomId)));
     }
+
+    private Product saveRandomProduct() {
+        Product product = randomModels.getRandomProduct();
+        supplierRepository.save(product.getSupplier());
+        imageService.saveImage(product.getImage());
+        categoryRepository.save(product.getCategory());
+        return productRepository.save(product);
+    }
+
+    private void deleteProduct(Product product) {
+        supplierRepository.deleteById(product.getSupplier().getId());
+        imageService.deleteById(product.getImage().getId());
+        categoryRepository.deleteById(product.getCategory().getId());
+    }
 }
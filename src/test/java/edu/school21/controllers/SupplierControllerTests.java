@@ -6,12 +6,16 @@ import edu.school21.models.Supplier;
 import edu.school21.repositories.SupplierRepository;
 import edu.school21.utils.MappingUtils;
 import io.restassured.RestAssured;
+import io.restassured.response.Response;
 import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -89,6 +93,29 @@ public class SupplierControllerTests extends ShopApplicationTests {
         });
     }
 
+    @Test
+    @DisplayName("API. GET. /api/v1/suppliers. Get all suppliers page by page with cursor")
+    void testGetAllSuppliersWithCursor_200() {
+        List<String> supplierIdsInDb = supplierRepository.findAll(Sort.by("name", "id")).stream()
+                .map(supplier -> supplier.getId().toString())
+                .toList();
+        List<String> supplierIds = new ArrayList<>();
+        String cursor = null;
+        do {
+            Response response = RestAssured.given()
+                    .port(port)
+                    .queryParam("limit", 2)
+                    .queryParams(cursor == null ? Map.of() : Map.of("cursor", cursor))
+                    .when()
+                    .get("api/v1/suppliers");
+            response.then()
+                    .statusCode(HTTP_OK);
+            supplierIds.addAll(response.jsonPath().getList("id", String.class));
+            cursor = response.getHeader("X-Next-Cursor");
+        } while (cursor != null);
+        Assertions.assertEquals(supplierIdsInDb, supplierIds);
+    }
+
     @Test
     @DisplayName("API. GET. /api/v1/suppliers. Get all suppliers, limit is max value, offset is 0")
     void testGetAllSuppliersLimitIsMaxValue_200() {
@@ -0,0 +1,127 @@
+package edu.school21.services;
+
+import edu.school21.ShopApplicationTests;
+import edu.school21.repositories.ProductRepository;
+import edu.school21.repositories.StockLeaseRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+public class StockLedgerServiceTests extends ShopApplicationTests {
+    @Autowired
+    private StockLeaseRepository stockLeaseRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    private UUID productId;
+    private int originalStock;
+
+    @BeforeEach
+    void setUpProductStock() {
+        productId = productRepository.findAll().get(0).getId();
+        originalStock = productStock();
+        setProductStock(10);
+    }
+
+    @AfterEach
+    void restore() {
+        jdbcTemplate.update("DELETE FROM stock_leases WHERE product_id = ?", productId);
+        setProductStock(originalStock);
+    }
+
+    @Test
+    @DisplayName("Stock ledger. Lease moves stock to escrow, take is written before it is confirmed")
+    void testAcquireTakeAndRelease() throws InterruptedException {
+        StockLedgerService ledger = newLedger("node-a", 30);
+        ledger.flush();
+        Assertions.assertTrue(ledger.owns(productId));
+        Assertions.assertEquals(0, productStock());
+        Assertions.assertEquals(10, escrow());
+        Assertions.assertEquals(StockLedgerService.TakeResult.TAKEN, ledger.take(productId, 3));
+        Assertions.assertEquals(7, escrow());
+        Assertions.assertEquals(StockLedgerService.TakeResult.INSUFFICIENT, ledger.take(productId, 8));
+        Assertions.assertEquals(7, ledger.available(productId));
+        ledger.close();
+        Assertions.assertFalse(ledger.owns(productId));
+        Assertions.assertEquals(7, productStock());
+        Assertions.assertTrue(stockLeaseRepository.findEscrow(List.of(productId)).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Stock ledger. Expired lease is taken over with its written escrow")
+    void testTakeover() throws InterruptedException {
+        StockLedgerService crashed = newLedger("node-a", 1);
+        StockLedgerService next = newLedger("node-b", 30);
+        crashed.flush();
+        Assertions.assertEquals(StockLedgerService.TakeResult.TAKEN, crashed.take(productId, 4));
+        next.flush();
+        Assertions.assertFalse(next.owns(productId));
+        Thread.sleep(1500);
+        next.flush();
+        Assertions.assertTrue(next.owns(productId));
+        Assertions.assertEquals(6, next.available(productId));
+        Assertions.assertEquals(StockLedgerService.TakeResult.NOT_OWNED, crashed.take(productId, 1));
+        next.close();
+        crashed.close();
+        Assertions.assertEquals(6, productStock());
+    }
+
+    @Test
+    @DisplayName("Stock ledger. Flush moves restocked product stock into lease")
+    void testFlushRestock() throws InterruptedException {
+        StockLedgerService ledger = newLedger("node-a", 30);
+        ledger.flush();
+        Assertions.assertEquals(StockLedgerService.TakeResult.TAKEN, ledger.take(productId, 2));
+        setProductStock(5);
+        ledger.flush();
+        Assertions.assertEquals(0, productStock());
+        Assertions.assertEquals(13, ledger.available(productId));
+        Assertions.assertEquals(13, escrow());
+        ledger.close();
+        Assertions.assertEquals(13, productStock());
+    }
+
+    @Test
+    @DisplayName("Stock ledger. Reset stock replaces the total instead of adding to the escrow")
+    void testResetStock() throws InterruptedException {
+        StockLedgerService ledger = newLedger("node-a", 30);
+        ledger.flush();
+        Assertions.assertEquals(StockLedgerService.TakeResult.TAKEN, ledger.take(productId, 2));
+        ledger.reset(productId);
+        setProductStock(5);
+        Assertions.assertEquals(StockLedgerService.TakeResult.NOT_OWNED, ledger.take(productId, 1));
+        Assertions.assertFalse(ledger.owns(productId));
+        ledger.flush();
+        Assertions.assertTrue(ledger.owns(productId));
+        Assertions.assertEquals(0, productStock());
+        Assertions.assertEquals(5, ledger.available(productId));
+        Assertions.assertEquals(5, escrow());
+        ledger.close();
+        Assertions.assertEquals(5, productStock());
+    }
+
+    private StockLedgerService newLedger(String nodeId, long leaseSeconds) {
+        return new StockLedgerService(stockLeaseRepository, true, List.of(productId), nodeId, leaseSeconds, 4);
+    }
+
+    private int productStock() {
+        return jdbcTemplate.queryForObject("SELECT available_stock FROM products WHERE id = ?", Integer.class,
+                productId);
+    }
+
+    private void setProductStock(int stock) {
+        jdbcTemplate.update("UPDATE products SET available_stock = ? WHERE id = ?", stock, productId);
+    }
+
+    private int escrow() {
+        return stockLeaseRepository.findEscrow(List.of(productId)).get(productId);
+    }
+}
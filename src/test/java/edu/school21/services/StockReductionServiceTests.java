@@ -0,0 +1,159 @@
+package edu.school21.services;
+
+import edu.school21.ShopApplicationTests;
+import edu.school21.models.Product;
+import edu.school21.models.ReservationLine;
+import edu.school21.repositories.ProductRepository;
+import edu.school21.repositories.StockReductionRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StockReductionServiceTests extends ShopApplicationTests {
+    private static final long WINDOW_MICROS = 500_000;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    private List<UUID> productIds;
+    private Map<UUID, Integer> originalStock = new HashMap<>();
+    private List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+    private UUID brokenProductId = UUID.randomUUID();
+    private StockReductionService stockReductionService;
+
+    @BeforeEach
+    void setUpProducts() {
+        productIds = productRepository.findAll().stream()
+                .limit(3)
+                .map(Product::getId)
+                .toList();
+        productIds.forEach(id -> originalStock.put(id, productStock(id)));
+        StockReductionRepository repository = new StockReductionRepository(jdbcTemplate) {
+            @Override
+            public boolean[] reduceAll(List<ReservationLine> lines) {
+                batches.add(lines.size());
+                if (lines.stream().anyMatch(line -> line.productId().equals(brokenProductId))) {
+                    throw new DataAccessResourceFailureException("Product row is unavailable");
+                }
+                return transactionTemplate.execute(status -> super.reduceAll(lines));
+            }
+        };
+        stockReductionService = new StockReductionService(repository, productRepository, transactionTemplate, 1,
+                WINDOW_MICROS);
+    }
+
+    @AfterEach
+    void restoreProducts() {
+        originalStock.forEach(this::setProductStock);
+    }
+
+    @Test
+    @DisplayName("Stock reduction. Merged total of one product is reduced without locking the row")
+    void testMergedBatch() throws Exception {
+        UUID product = productIds.get(0);
+        setProductStock(product, 10);
+        List<Future<Boolean>> results = reduceConcurrently(List.of(
+                new ReservationLine(product, 4),
+                new ReservationLine(product, 4)));
+        Assertions.assertEquals(List.of(true, true), joinAll(results));
+        Assertions.assertTrue(batches.isEmpty());
+        Assertions.assertEquals(2, productStock(product));
+    }
+
+    @Test
+    @DisplayName("Stock reduction. One batch grants requests with stock and rejects the rest")
+    void testMixedBatch() throws Exception {
+        UUID first = productIds.get(0);
+        UUID empty = productIds.get(1);
+        UUID exact = productIds.get(2);
+        setProductStock(first, 10);
+        setProductStock(empty, 0);
+        setProductStock(exact, 5);
+        List<Future<Boolean>> results = reduceConcurrently(List.of(
+                new ReservationLine(first, 4),
+                new ReservationLine(first, 4),
+                new ReservationLine(first, 100),
+                new ReservationLine(empty, 1),
+                new ReservationLine(exact, 5)));
+        Assertions.assertEquals(List.of(true, true, false, false, true), joinAll(results));
+        // строки блокируются только для товара, которому не хватило суммы нескольких запросов
+        Assertions.assertEquals(List.of(3), batches);
+        Assertions.assertEquals(2, productStock(first));
+        Assertions.assertEquals(0, productStock(empty));
+        Assertions.assertEquals(0, productStock(exact));
+    }
+
+    @Test
+    @DisplayName("Stock reduction. Failure of one product does not fail other products of the batch")
+    void testFailureIsolatedByProduct() throws Exception {
+        UUID product = productIds.get(0);
+        setProductStock(product, 4);
+        List<Future<Boolean>> results = reduceConcurrently(List.of(
+                new ReservationLine(product, 3),
+                new ReservationLine(brokenProductId, 1),
+                new ReservationLine(product, 2),
+                new ReservationLine(brokenProductId, 1)));
+        Assertions.assertTrue(results.get(0).get());
+        ExecutionException exception = Assertions.assertThrows(ExecutionException.class,
+                () -> results.get(1).get());
+        Assertions.assertInstanceOf(DataAccessResourceFailureException.class, exception.getCause());
+        Assertions.assertFalse(results.get(2).get());
+        Assertions.assertThrows(ExecutionException.class, () -> results.get(3).get());
+        // после ошибки пачки товары списываются заново по одному в порядке первого запроса
+        Assertions.assertEquals(List.of(4, 2, 2), batches);
+        Assertions.assertEquals(1, productStock(product));
+    }
+
+    /**
+     * Все запросы ставятся в очередь, пока первый поток ждет окно полосы, поэтому уходят одной пачкой
+     */
+    private List<Future<Boolean>> reduceConcurrently(List<ReservationLine> lines) {
+        ExecutorService executor = Executors.newFixedThreadPool(lines.size());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = lines.stream()
+                .map(line -> executor.submit(() -> {
+                    start.await();
+                    return stockReductionService.reduce(line.productId(), line.amount()).isPresent();
+                }))
+                .toList();
+        start.countDown();
+        executor.shutdown();
+        return results;
+    }
+
+    private List<Boolean> joinAll(List<Future<Boolean>> results) throws Exception {
+        List<Boolean> granted = new ArrayList<>();
+        for (Future<Boolean> result : results) {
+            granted.add(result.get());
+        }
+        return granted;
+    }
+
+    private int productStock(UUID id) {
+        return jdbcTemplate.queryForObject("SELECT available_stock FROM products WHERE id = ?", Integer.class, id);
+    }
+
+    private void setProductStock(UUID id, int stock) {
+        jdbcTemplate.update("UPDATE products SET available_stock = ? WHERE id = ?", stock, id);
+    }
+}
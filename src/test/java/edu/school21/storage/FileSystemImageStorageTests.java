@@ -0,0 +1,92 @@
+package edu.school21.storage;
+
+import edu.school21.models.EncodedImage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class FileSystemImageStorageTests {
+    private static final String HASH = "ab" + "0".repeat(62);
+    @TempDir
+    Path directory;
+    private FileSystemImageStorage storage;
+    private byte[] data;
+
+    @BeforeEach
+    void init() {
+        storage = new FileSystemImageStorage(directory.toString());
+        data = new byte[100_000];
+        new Random().nextBytes(data);
+    }
+
+    @Test
+    @DisplayName("Storage. File. Written data is read back")
+    void testWriteAndRead() throws IOException {
+        storage.write(HASH, "deflate", data);
+        Path file = directory.resolve("ab").resolve(HASH + ".deflate");
+        Assertions.assertEquals(file, storage.findFile(HASH, "deflate").orElseThrow());
+        Assertions.assertTrue(storage.findFile(HASH, "lz4").isEmpty());
+        try (InputStream in = storage.open(HASH, "deflate", 0, data.length)) {
+            Assertions.assertArrayEquals(data, in.readAllBytes());
+        }
+        // временные файлы после записи не остаются
+        try (var files = Files.list(file.getParent())) {
+            Assertions.assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    @Test
+    @DisplayName("Storage. File. Range of written data is read back")
+    void testReadRange() throws IOException {
+        storage.writeAll(List.of(new EncodedImage(HASH, "application/octet-stream", data.length, "stored", data,
+                false)));
+        try (InputStream in = storage.open(HASH, "stored", 1000, 5000)) {
+            Assertions.assertArrayEquals(Arrays.copyOfRange(data, 1000, 6000), in.readAllBytes());
+        }
+        // диапазон за концом файла обрезается по размеру файла
+        try (InputStream in = storage.open(HASH, "stored", data.length - 10, 100)) {
+            Assertions.assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), in.readAllBytes());
+        }
+        try (InputStream in = storage.open(HASH, "stored", data.length, 100)) {
+            Assertions.assertEquals(0, in.readAllBytes().length);
+        }
+    }
+
+    @Test
+    @DisplayName("Storage. File. Rewriting replaces data")
+    void testRewrite() throws IOException {
+        storage.write(HASH, "stored", new byte[10]);
+        storage.write(HASH, "stored", data);
+        try (InputStream in = storage.open(HASH, "stored", 0, data.length)) {
+            Assertions.assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    @DisplayName("Storage. File. Deleted data is not read")
+    void testDelete() throws IOException {
+        storage.write(HASH, "deflate", data);
+        try (InputStream opened = storage.open(HASH, "deflate", 0, data.length)) {
+            storage.delete(HASH, "deflate");
+            // уже открытый поток дочитывает отображенные данные
+            Assertions.assertArrayEquals(data, opened.readAllBytes());
+        }
+        Assertions.assertTrue(storage.findFile(HASH, "deflate").isEmpty());
+        try (InputStream in = storage.open(HASH, "deflate", 0, data.length)) {
+            Assertions.assertEquals(0, in.readAllBytes().length);
+        }
+        // повторное удаление и удаление несуществующих данных не считаются ошибкой
+        storage.delete(HASH, "deflate");
+        storage.delete(HASH, "lz4");
+    }
+}
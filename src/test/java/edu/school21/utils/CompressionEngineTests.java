@@ -0,0 +1,102 @@
+package edu.school21.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompressionEngineTests {
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    @Test
+    @DisplayName("Compression engine. Pooled instances are reset and reused between round trips")
+    void testRoundTripAfterReuse() throws IOException {
+        CompressionEngine engine = new CompressionEngine(1, MAX_RETAINED_BUFFER_SIZE);
+        byte[] first = "first image ".repeat(1_000).getBytes(StandardCharsets.US_ASCII);
+        byte[] second = "second image ".repeat(2_000).getBytes(StandardCharsets.US_ASCII);
+        byte[] firstCompressed = engine.compress(first, Deflater.BEST_COMPRESSION);
+        byte[] secondCompressed = engine.compress(second, Deflater.BEST_SPEED);
+        Inflater inflater;
+        try (CompressionEngine.PooledInflaterInputStream in = inflate(engine, firstCompressed)) {
+            inflater = in.getInflater();
+            Assertions.assertArrayEquals(first, in.readAllBytes());
+        }
+        try (CompressionEngine.PooledInflaterInputStream in = inflate(engine, secondCompressed)) {
+            Assertions.assertSame(inflater, in.getInflater());
+            Assertions.assertArrayEquals(second, in.readAllBytes());
+        }
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try (OutputStream out = engine.deflate(streamed, Deflater.DEFAULT_COMPRESSION)) {
+            out.write(first);
+        }
+        try (InputStream in = engine.inflate(new ByteArrayInputStream(streamed.toByteArray()))) {
+            Assertions.assertArrayEquals(first, in.readAllBytes());
+        }
+        Assertions.assertArrayEquals(second, engine.inflate(new ByteArrayInputStream(
+                engine.compress(second, Deflater.DEFAULT_COMPRESSION))).readAllBytes());
+        engine.close();
+    }
+
+    @Test
+    @DisplayName("Compression engine. Instances that do not fit into the full pool are ended")
+    void testOverflowInstancesEnded() throws IOException {
+        CompressionEngine engine = new CompressionEngine(1, MAX_RETAINED_BUFFER_SIZE);
+        byte[] compressed = engine.compress(new byte[1_000], Deflater.DEFAULT_COMPRESSION);
+        CompressionEngine.PooledInflaterInputStream pooled = inflate(engine, compressed);
+        CompressionEngine.PooledInflaterInputStream overflow = inflate(engine, compressed);
+        pooled.close();
+        overflow.close();
+        // end() освобождает нативную память, после него любой вызов завершается NullPointerException
+        Assertions.assertThrows(NullPointerException.class, () -> overflow.getInflater().reset());
+        try (CompressionEngine.PooledInflaterInputStream in = inflate(engine, compressed)) {
+            Assertions.assertSame(pooled.getInflater(), in.getInflater());
+            Assertions.assertEquals(1_000, in.readAllBytes().length);
+        }
+        CompressionEngine.PooledDeflaterOutputStream pooledOut = deflate(engine);
+        CompressionEngine.PooledDeflaterOutputStream overflowOut = deflate(engine);
+        pooledOut.close();
+        overflowOut.close();
+        Assertions.assertThrows(NullPointerException.class, () -> overflowOut.getDeflater().reset());
+        Assertions.assertDoesNotThrow(() -> pooledOut.getDeflater().reset());
+        engine.close();
+        Assertions.assertThrows(NullPointerException.class, () -> pooled.getInflater().reset());
+        Assertions.assertThrows(NullPointerException.class, () -> pooledOut.getDeflater().reset());
+    }
+
+    @Test
+    @DisplayName("Compression engine. Buffers larger than max retained size are not kept in the pool")
+    void testLargeBufferNotRetained() {
+        CompressionEngine engine = new CompressionEngine(1, MAX_RETAINED_BUFFER_SIZE);
+        byte[] small = new byte[1_000];
+        engine.compress(small, Deflater.DEFAULT_COMPRESSION);
+        long retained = engine.retainedBufferSize();
+        Assertions.assertTrue(retained > 0 && retained <= MAX_RETAINED_BUFFER_SIZE);
+        // случайные данные не сжимаются, поэтому буфер растет до размера входа
+        byte[] large = new byte[4 * MAX_RETAINED_BUFFER_SIZE];
+        new Random(21).nextBytes(large);
+        byte[] compressed = engine.compress(large, Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertTrue(compressed.length > MAX_RETAINED_BUFFER_SIZE);
+        Assertions.assertEquals(0, engine.retainedBufferSize());
+        engine.compress(small, Deflater.DEFAULT_COMPRESSION);
+        Assertions.assertEquals(retained, engine.retainedBufferSize());
+        engine.close();
+    }
+
+    private static CompressionEngine.PooledInflaterInputStream inflate(CompressionEngine engine, byte[] compressed) {
+        return (CompressionEngine.PooledInflaterInputStream) engine.inflate(new ByteArrayInputStream(compressed));
+    }
+
+    private static CompressionEngine.PooledDeflaterOutputStream deflate(CompressionEngine engine) {
+        return (CompressionEngine.PooledDeflaterOutputStream) engine.deflate(new ByteArrayOutputStream(),
+                Deflater.DEFAULT_COMPRESSION);
+    }
+}
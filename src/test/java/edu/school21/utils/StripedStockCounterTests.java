@@ -0,0 +1,84 @@
+package edu.school21.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StripedStockCounterTests {
+    @Test
+    @DisplayName("Stock counter. Take within stock")
+    void testTryTake() {
+        StripedStockCounter counter = new StripedStockCounter(10, 4);
+        Assertions.assertEquals(10, counter.sum());
+        Assertions.assertTrue(counter.tryTake(3));
+        Assertions.assertEquals(7, counter.sum());
+        Assertions.assertTrue(counter.tryTake(0));
+        Assertions.assertEquals(7, counter.sum());
+    }
+
+    @Test
+    @DisplayName("Stock counter. Take more than stock fails without change")
+    void testTryTakeInsufficient() {
+        StripedStockCounter counter = new StripedStockCounter(5, 4);
+        Assertions.assertFalse(counter.tryTake(6));
+        Assertions.assertEquals(5, counter.sum());
+    }
+
+    @Test
+    @DisplayName("Stock counter. Take larger than any stripe is collected from several stripes")
+    void testTryTakeFragmented() {
+        StripedStockCounter counter = new StripedStockCounter(8, 4);
+        Assertions.assertTrue(counter.tryTake(7));
+        Assertions.assertEquals(1, counter.sum());
+        Assertions.assertFalse(counter.tryTake(2));
+        Assertions.assertEquals(1, counter.sum());
+        Assertions.assertTrue(counter.tryTake(1));
+        Assertions.assertEquals(0, counter.sum());
+    }
+
+    @Test
+    @DisplayName("Stock counter. Returned amount can be taken again")
+    void testAdd() {
+        StripedStockCounter counter = new StripedStockCounter(2, 4);
+        Assertions.assertTrue(counter.tryTake(2));
+        counter.add(5);
+        Assertions.assertEquals(5, counter.sum());
+        Assertions.assertTrue(counter.tryTake(5));
+        Assertions.assertEquals(0, counter.sum());
+    }
+
+    @Test
+    @DisplayName("Stock counter. Concurrent takes never sell more than stock")
+    void testConcurrentTakes() throws Exception {
+        int stock = 10_000;
+        StripedStockCounter counter = new StripedStockCounter(stock, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int amount = i % 3 + 1;
+                futures.add(executor.submit(() -> {
+                    int taken = 0;
+                    while (counter.tryTake(amount)) {
+                        taken += amount;
+                    }
+                    return taken;
+                }));
+            }
+            int taken = 0;
+            for (Future<Integer> future : futures) {
+                taken += future.get();
+            }
+            Assertions.assertEquals(stock, taken + counter.sum());
+            Assertions.assertTrue(counter.sum() < 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.school21.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Колесо двигается синтетическими значениями now, поэтому тесты не ждут реального времени.
+ * При tickMillis = 100 и wheelSize = 4 уровень 0 покрывает 400 мс, уровень 1 - 1.6 с, уровень 2 - 6.4 с,
+ * уровень 3 - 25.6 с
+ */
+public class TimingWheelTests {
+    private static final long TICK = 100;
+    private static final int WHEEL_SIZE = 4;
+
+    @Test
+    @DisplayName("Timing wheel. Deadlines on every level fire on the first tick after the deadline")
+    void testMultiLevelCascade() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        List<Long> deadlines = List.of(150L, 399L, 1_000L, 5_550L, 20_000L, 100_000L, 987_654L);
+        deadlines.forEach(deadline -> Assertions.assertTrue(wheel.add(deadline, deadline)));
+        Assertions.assertEquals(deadlines.size(), wheel.size());
+        Map<Long, Long> fired = drive(wheel, 0, 1_000_000);
+        Assertions.assertEquals(deadlines.size(), fired.size());
+        deadlines.forEach(deadline -> Assertions.assertEquals(firstTickAfter(deadline), fired.get(deadline)));
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Timing wheel. Deadlines on slot boundaries of upper levels fire on time")
+    void testSlotBoundaries() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        List<Long> deadlines = new ArrayList<>();
+        for (long span = TICK * WHEEL_SIZE; span <= TICK * WHEEL_SIZE * WHEEL_SIZE * WHEEL_SIZE; span *= WHEEL_SIZE) {
+            deadlines.add(span - 1);
+            deadlines.add(span);
+            deadlines.add(span + TICK);
+            deadlines.add(3 * span);
+        }
+        deadlines.stream().distinct().forEach(deadline -> wheel.add(deadline, deadline));
+        Map<Long, Long> fired = drive(wheel, 0, 30_000);
+        deadlines.forEach(deadline -> Assertions.assertEquals(firstTickAfter(deadline), fired.get(deadline),
+                "deadline " + deadline));
+    }
+
+    @Test
+    @DisplayName("Timing wheel. Items added after a long run keep their level relative to the current slot")
+    void testAddAfterAdvance() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, 12_345);
+        drive(wheel, 12_345, 50_000);
+        List<Long> deadlines = List.of(50_050L, 51_600L, 57_000L, 76_800L, 150_000L);
+        deadlines.forEach(deadline -> Assertions.assertTrue(wheel.add(deadline, deadline)));
+        Map<Long, Long> fired = drive(wheel, 50_000, 200_000);
+        deadlines.forEach(deadline -> Assertions.assertEquals(firstTickAfter(deadline), fired.get(deadline)));
+    }
+
+    @Test
+    @DisplayName("Timing wheel. Past deadlines are rejected, the current slot fires on the next tick")
+    void testPastDeadlines() {
+        TimingWheel<String> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, 10_000);
+        Assertions.assertFalse(wheel.add("past", 9_999));
+        Assertions.assertTrue(wheel.add("current", 10_050));
+        Assertions.assertEquals(1, wheel.size());
+        List<String> fired = new ArrayList<>();
+        wheel.advance(10_099, fired::add);
+        Assertions.assertTrue(fired.isEmpty());
+        wheel.advance(10_100, fired::add);
+        Assertions.assertEquals(List.of("current"), fired);
+        Assertions.assertFalse(wheel.add("past", 10_099));
+        Assertions.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Timing wheel. One large advance fires everything due in deadline order of slots")
+    void testLargeAdvance() {
+        TimingWheel<Long> wheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        List<Long> deadlines = List.of(70_000L, 50L, 6_400L, 1_599L, 25_600L);
+        deadlines.forEach(deadline -> wheel.add(deadline, deadline));
+        List<Long> fired = new ArrayList<>();
+        wheel.advance(30_000, fired::add);
+        Assertions.assertEquals(List.of(50L, 1_599L, 6_400L, 25_600L), fired);
+        wheel.advance(70_099, fired::add);
+        Assertions.assertEquals(4, fired.size());
+        wheel.advance(70_100, fired::add);
+        Assertions.assertEquals(70_000L, fired.get(4));
+    }
+
+    /**
+     * Метод двигает колесо по одному тику и запоминает момент срабатывания каждого элемента
+     */
+    private static Map<Long, Long> drive(TimingWheel<Long> wheel, long from, long to) {
+        Map<Long, Long> fired = new HashMap<>();
+        for (long now = from; now <= to; now += TICK) {
+            long at = now;
+            wheel.advance(now, item -> Assertions.assertNull(fired.put(item, at)));
+        }
+        return fired;
+    }
+
+    private static long firstTickAfter(long deadline) {
+        return (deadline / TICK + 1) * TICK;
+    }
+}
@@ -17,10 +17,107 @@ CREATE TABLE IF NOT EXISTS clients
     address_id        uuid REFERENCES addresses (id)
 );
 
+-- индексы (ключ сортировки, id) нужны для постраничного просмотра по курсору (см. PageCursor)
+CREATE INDEX IF NOT EXISTS clients_surname_id_idx ON clients (surname, id);
+
+CREATE TABLE IF NOT EXISTS image_blobs
+(
+    hash          VARCHAR(64)  PRIMARY KEY,
+    size          BIGINT       NOT NULL,
+    stored_length BIGINT       NOT NULL,
+    codec         VARCHAR(16)  NOT NULL DEFAULT 'deflate',
+    media_type    VARCHAR(255) NOT NULL DEFAULT 'application/octet-stream',
+    ref_count     INTEGER      NOT NULL DEFAULT 1 CHECK ( ref_count >= 0 ),
+    recompress    BOOLEAN      NOT NULL DEFAULT false
+);
+
+-- данные изображений при images.storage.type=database, по одной строке на пару (хеш, кодек)
+CREATE TABLE IF NOT EXISTS image_data
+(
+    hash  VARCHAR(64) NOT NULL,
+    codec VARCHAR(16) NOT NULL,
+    data  bytea       NOT NULL,
+    PRIMARY KEY (hash, codec)
+);
+
+-- сжатые изображения не сжимаются TOAST повторно, а substring читает только нужные чанки
+ALTER TABLE image_data ALTER COLUMN data SET STORAGE EXTERNAL;
+
+-- данные, замененные пересжатием, удаляются из хранилища не сразу, а после срока ожидания, чтобы уже начатые
+-- загрузки дочитали старую копию (см. ImageService.deleteRetiredContent)
+CREATE TABLE IF NOT EXISTS image_data_retired
+(
+    hash       VARCHAR(64) NOT NULL,
+    codec      VARCHAR(16) NOT NULL,
+    retired_at TIMESTAMP   NOT NULL DEFAULT now(),
+    PRIMARY KEY (hash, codec)
+);
+
+CREATE INDEX IF NOT EXISTS image_data_retired_retired_at_idx ON image_data_retired (retired_at);
+
+-- очередь фонового пересжатия: индекс содержит только ожидающие записи
+CREATE INDEX IF NOT EXISTS image_blobs_recompress_idx ON image_blobs (hash) WHERE recompress;
+
 CREATE TABLE IF NOT EXISTS images
 (
-    id    uuid PRIMARY KEY DEFAULT gen_random_uuid(),
-    image bytea NOT NULL
+    id           uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+    hash         VARCHAR(64) NOT NULL REFERENCES image_blobs (hash),
+    created_date TIMESTAMP   NOT NULL DEFAULT now()::TIMESTAMP(2)
+);
+
+-- переход со схемы, где изображения хранились в images.image сжатыми deflate. SQL не может распаковать данные,
+-- поэтому они переносятся в image_data под хешем сжатых данных с size = -1, а хеш и размер исходных данных
+-- дописывает ImageService.completeMigratedContent при запуске. Тело блока в одинарных кавычках: spring.sql.init
+-- делит скрипт по точке с запятой и не учитывает $$
+ALTER TABLE images ADD COLUMN IF NOT EXISTS hash VARCHAR(64);
+ALTER TABLE images ADD COLUMN IF NOT EXISTS created_date TIMESTAMP NOT NULL DEFAULT now()::TIMESTAMP(2);
+
+DO '
+BEGIN
+    IF EXISTS (SELECT FROM information_schema.columns
+               WHERE table_schema = current_schema() AND table_name = ''images'' AND column_name = ''image'') THEN
+        INSERT INTO image_data (hash, codec, data)
+        SELECT DISTINCT ON (hash) hash, ''deflate'', image
+        FROM (SELECT encode(sha256(image), ''hex'') AS hash, image FROM images) legacy
+        ON CONFLICT DO NOTHING;
+        INSERT INTO image_blobs (hash, size, stored_length, codec, ref_count)
+        SELECT encode(sha256(image), ''hex''), -1, octet_length(image), ''deflate'', count(*)
+        FROM images
+        GROUP BY 1, 3
+        ON CONFLICT DO NOTHING;
+        UPDATE images SET hash = encode(sha256(image), ''hex'');
+        ALTER TABLE images DROP COLUMN image;
+        ALTER TABLE images ALTER COLUMN hash SET NOT NULL;
+        ALTER TABLE images ADD FOREIGN KEY (hash) REFERENCES image_blobs (hash);
+    END IF;
+END
+';
+
+CREATE INDEX IF NOT EXISTS images_hash_idx ON images (hash);
+
+-- очистка изображений без товаров обходит их от самых старых
+CREATE INDEX IF NOT EXISTS images_created_date_idx ON images (created_date);
+
+-- уменьшенные копии изображений: variant_hash ссылается на содержимое копии, строка держит одну ссылку на него.
+-- 0 в width или height - без ограничения по этой стороне
+CREATE TABLE IF NOT EXISTS image_variants
+(
+    hash         VARCHAR(64) NOT NULL REFERENCES image_blobs (hash),
+    width        INTEGER     NOT NULL,
+    height       INTEGER     NOT NULL,
+    variant_hash VARCHAR(64) NOT NULL REFERENCES image_blobs (hash),
+    PRIMARY KEY (hash, width, height)
+);
+
+-- image_id не ссылается на images: изображение может быть удалено раньше, чем запись о задаче
+CREATE TABLE IF NOT EXISTS image_upload_jobs
+(
+    id               uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+    status           VARCHAR(16) NOT NULL,
+    image_id         uuid,
+    error            VARCHAR(1024),
+    created_date     TIMESTAMP   DEFAULT now()::TIMESTAMP(2),
+    last_update_date TIMESTAMP   DEFAULT now()::TIMESTAMP(2)
 );
 
 CREATE TABLE IF NOT EXISTS suppliers
@@ -31,6 +128,8 @@ CREATE TABLE IF NOT EXISTS suppliers
     phone_number VARCHAR(20)  NOT NULL
 );
 
+CREATE INDEX IF NOT EXISTS suppliers_name_id_idx ON suppliers (name, id);
+
 CREATE TABLE IF NOT EXISTS categories
 (
     id   uuid PRIMARY KEY DEFAULT gen_random_uuid(),
@@ -46,9 +145,55 @@ CREATE TABLE IF NOT EXISTS products
     name             VARCHAR(255) NOT NULL,
     price            DECIMAL      NOT NULL CHECK (price > 0),
     available_stock  INTEGER      NOT NULL CHECK ( available_stock >= 0 ),
+    stock_slots      INTEGER      NOT NULL DEFAULT 0 CHECK ( stock_slots >= 0 ),
     last_update_date TIMESTAMP        DEFAULT now()::TIMESTAMP(2)
 );
 
+-- в базах, созданных до раскладки остатка по слотам, столбца еще нет
+ALTER TABLE products ADD COLUMN IF NOT EXISTS stock_slots INTEGER NOT NULL DEFAULT 0 CHECK ( stock_slots >= 0 );
+
+CREATE INDEX IF NOT EXISTS products_image_id_idx ON products (image_id);
+CREATE INDEX IF NOT EXISTS products_name_id_idx ON products (name, id);
+
+-- товары режима горячих SKU: остаток выносится из products.available_stock в escrow узла-владельца аренды,
+-- списания подтверждаются из памяти, а escrow периодически обновляется (см. StockLedgerService)
+CREATE TABLE IF NOT EXISTS stock_leases
+(
+    product_id uuid        PRIMARY KEY REFERENCES products (id) ON DELETE CASCADE,
+    node_id    VARCHAR(64) NOT NULL,
+    escrow     INTEGER     NOT NULL CHECK ( escrow >= 0 ),
+    expires_at TIMESTAMP   NOT NULL
+);
+
+-- остаток товара с stock_slots > 0 дополнительно разложен по слотам, чтобы параллельные списания блокировали
+-- разные строки (см. ProductStockSlotRepository). Полный остаток - available_stock плюс сумма слотов
+CREATE TABLE IF NOT EXISTS product_stock_slots
+(
+    product_id uuid    NOT NULL REFERENCES products (id) ON DELETE CASCADE,
+    slot       INTEGER NOT NULL,
+    stock      INTEGER NOT NULL CHECK ( stock >= 0 ),
+    PRIMARY KEY (product_id, slot)
+);
+
+-- временные резервы корзин: остаток списан при создании и возвращается при отмене или истечении срока.
+-- Сроки отслеживает колесо таймеров в памяти узла (см. StockHoldService), индекс нужен для восстановления
+-- и для подбора резервов, которые не истекли из-за остановки узла
+CREATE TABLE IF NOT EXISTS stock_holds
+(
+    id         uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+    expires_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS stock_holds_expires_at_idx ON stock_holds (expires_at);
+
+CREATE TABLE IF NOT EXISTS stock_hold_lines
+(
+    hold_id    uuid    NOT NULL REFERENCES stock_holds (id) ON DELETE CASCADE,
+    product_id uuid    NOT NULL REFERENCES products (id) ON DELETE CASCADE,
+    amount     INTEGER NOT NULL CHECK ( amount > 0 ),
+    PRIMARY KEY (hold_id, product_id)
+);
+
 -- Вставка тестовых данных в таблицу addresses
 INSERT INTO addresses (country, city, street)
 VALUES ('USA', 'New York', '5th Avenue, 101'),
@@ -73,13 +218,22 @@ VALUES ((SELECT id FROM addresses WHERE street = '5th Avenue, 101'), 'Supplier A
        ((SELECT id FROM addresses WHERE street = 'Unter den Linden, 1'), 'Supplier D', '+7(456)789-01-23'),
        ((SELECT id FROM addresses WHERE street = 'Champs-Élysées, 120'), 'Supplier E', '8(567)890-12-34');
 
+-- Вставка тестовых данных в таблицы image_data и image_blobs
+INSERT INTO image_data (hash, codec, data)
+VALUES (encode(sha256('image1'::bytea), 'hex'), 'stored', decode('aW1hZ2Ux', 'base64')),
+       (encode(sha256('image2'::bytea), 'hex'), 'stored', decode('aW1hZ2Uy', 'base64')),
+       (encode(sha256('image3'::bytea), 'hex'), 'stored', decode('aW1hZ2Uz', 'base64')),
+       (encode(sha256('image4'::bytea), 'hex'), 'stored', decode('aW1hZ2U0', 'base64')),
+       (encode(sha256('image5'::bytea), 'hex'), 'stored', decode('aW1hZ2U1', 'base64'));
+
+INSERT INTO image_blobs (hash, size, stored_length, codec)
+SELECT hash, octet_length(data), octet_length(data), codec
+FROM image_data;
+
 -- Вставка тестовых данных в таблицу images
-INSERT INTO images (image)
-VALUES (decode('aW1hZ2Ux', 'base64')),
-       (decode('aW1hZ2Uy', 'base64')),
-       (decode('aW1hZ2Uz', 'base64')),
-       (decode('aW1hZ2U0', 'base64')),
-       (decode('aW1hZ2U1', 'base64'));
+INSERT INTO images (hash)
+SELECT hash
+FROM image_blobs;
 
 -- Вставка тестовых данных в таблицу categories
 INSERT INTO categories (name)
@@ -91,13 +245,18 @@ VALUES ('Electronics'),
 
 -- Вставка тестовых данных в таблицу products
 INSERT INTO products (supplier_id, image_id, name, category_id, price, available_stock)
-VALUES ((SELECT id FROM suppliers WHERE name = 'Supplier A'), (SELECT id FROM images WHERE image = 'image1'),
+VALUES ((SELECT id FROM suppliers WHERE name = 'Supplier A'),
+        (SELECT id FROM images WHERE hash = encode(sha256('image1'::bytea), 'hex')),
         'Product A', (SELECT id FROM categories WHERE name = 'Electronics'), 99.99, 10),
-       ((SELECT id FROM suppliers WHERE name = 'Supplier B'), (SELECT id FROM images WHERE image = 'image2'),
+       ((SELECT id FROM suppliers WHERE name = 'Supplier B'),
+        (SELECT id FROM images WHERE hash = encode(sha256('image2'::bytea), 'hex')),
         'Product B', (SELECT id FROM categories WHERE name = 'Clothing'), 49.99, 5),
-       ((SELECT id FROM suppliers WHERE name = 'Supplier C'), (SELECT id FROM images WHERE image = 'image3'),
+       ((SELECT id FROM suppliers WHERE name = 'Supplier C'),
+        (SELECT id FROM images WHERE hash = encode(sha256('image3'::bytea), 'hex')),
         'Product C', (SELECT id FROM categories WHERE name = 'Toys'), 19.99, 15),
-       ((SELECT id FROM suppliers WHERE name = 'Supplier D'), (SELECT id FROM images WHERE image = 'image4'),
+       ((SELECT id FROM suppliers WHERE name = 'Supplier D'),
+        (SELECT id FROM images WHERE hash = encode(sha256('image4'::bytea), 'hex')),
         'Product D', (SELECT id FROM categories WHERE name = 'Books'), 24.99, 8),
-       ((SELECT id FROM suppliers WHERE name = 'Supplier E'), (SELECT id FROM images WHERE image = 'image5'),
+       ((SELECT id FROM suppliers WHERE name = 'Supplier E'),
+        (SELECT id FROM images WHERE hash = encode(sha256('image5'::bytea), 'hex')),
         'Product E', (SELECT id FROM categories WHERE name = 'Sports'), 79.99, 3);